@@ -0,0 +1,257 @@
+package edu.xxx.cluster;
+
+import static edu.xxx.web.Utils.routeKey;
+import static spark.Spark.before;
+import static spark.Spark.halt;
+
+import edu.xxx.metrics.Counter;
+import edu.xxx.metrics.Metrics;
+import edu.xxx.util.Log;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Spreads the keys (e.g., accounts) of a Spark web server across a cluster of nodes. Each node
+ * knows the full list of members, and a {@link HashRing} tells every node which member owns any
+ * given key. A request for a key that some other node owns is forwarded to that node, and the
+ * answer is passed back to the client, so clients can talk to any node they like.
+ *
+ * <p>Engineering notes: the "internal protocol" is just our ordinary HTTP API, sent over a shared
+ * {@link HttpClient} that keeps connections to the other nodes open between requests. Forwarded
+ * requests carry a {@value #FORWARDED_HEADER} header, and a node always handles a request with
+ * that header itself, so a request can never bounce around the cluster, even if two nodes briefly
+ * disagree about the membership list.
+ *
+ * <p>Since a forwarded request skips the routing (and, on the market server, the rate limits), the
+ * header has to be unforgeable. It holds the sending node's name, the time, and an HMAC-SHA256 of
+ * those plus the request's method, path, and query string, keyed with a secret that every node in
+ * the cluster shares. A node only accepts the header if the signature checks out and the time is
+ * within {@value #MAX_SKEW_MILLIS} ms of its own clock, and turns away requests with any other
+ * {@value #FORWARDED_HEADER} header. Somebody who can watch the traffic between the nodes could
+ * still replay a forwarded request within that window, but nobody else can make one.
+ */
+public final class ClusterRouter {
+  private static final String TAG = "ClusterRouter";
+
+  /** Header marking (and authenticating) a request that one node has forwarded to another. */
+  public static final String FORWARDED_HEADER = "X-Cluster-Forwarded";
+
+  /** The shortest shared secret we'll accept, in bytes. */
+  public static final int MIN_SECRET_BYTES = 16;
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+  private static final long MAX_SKEW_MILLIS = 30_000;
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+
+  private final String self;
+  private final HashRing ring;
+  private final List<String> members;
+  private final SecretKeySpec key;
+  private final HttpClient client;
+  private final Counter forwarded;
+  private final Counter failures;
+  private final Counter rejected;
+
+  /**
+   * Makes a router for the node named <code>self</code> (as "host:port") in a cluster with the
+   * given members, which must include <code>self</code>, signing and checking forwarded requests
+   * with the given secret, which every member must share.
+   */
+  public ClusterRouter(String self, Collection<String> members, byte[] secret) {
+    if (!members.contains(self)) {
+      throw new IllegalArgumentException(self + " isn't one of the cluster members " + members);
+    }
+    if (secret.length < MIN_SECRET_BYTES) {
+      throw new IllegalArgumentException(
+          "the cluster secret must be at least " + MIN_SECRET_BYTES + " bytes long");
+    }
+    this.self = self;
+    this.ring = new HashRing(members, HashRing.DEFAULT_VIRTUAL_NODES);
+    this.members = ring.members();
+    this.key = new SecretKeySpec(secret, MAC_ALGORITHM);
+    this.client =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(TIMEOUT)
+            .build();
+    this.forwarded =
+        Metrics.counter("cluster_forwarded_total", "Requests forwarded to their owning node.");
+    this.failures =
+        Metrics.counter(
+            "cluster_forward_failures_total", "Forwarded requests that got no answer.");
+    this.rejected =
+        Metrics.counter(
+            "cluster_forward_rejected_total",
+            "Requests turned away for a missing or invalid cluster signature.");
+  }
+
+  /** This node's name, as "host:port". */
+  public String self() {
+    return self;
+  }
+
+  /** Every member of the cluster, in the same (sorted) order on every node. */
+  public List<String> members() {
+    return members;
+  }
+
+  /** The signature for a request from the given node, at the given time. */
+  private String signature(String from, long millis, String method, String pathAndQuery) {
+    var mac =
+        Try.of(
+                () -> {
+                  var result = Mac.getInstance(MAC_ALGORITHM);
+                  result.init(key);
+                  return result;
+                })
+            .get();
+    var signed = from + "\n" + millis + "\n" + method + "\n" + pathAndQuery;
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(mac.doFinal(signed.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /** The {@value #FORWARDED_HEADER} header for a request this node is sending out now. */
+  private String sign(String method, String pathAndQuery) {
+    long now = System.currentTimeMillis();
+    return self + " " + now + " " + signature(self, now, method, pathAndQuery);
+  }
+
+  private static String pathAndQuery(Request request) {
+    return Option.of(request.pathInfo()).getOrElse("/")
+        + Option.of(request.queryString()).map(q -> "?" + q).getOrElse("");
+  }
+
+  /**
+   * Was this request forwarded here by another member of the cluster? That's only true if it has
+   * a {@value #FORWARDED_HEADER} header signed with our shared secret, not long ago.
+   */
+  public boolean isForwarded(Request request) {
+    var header = request.headers(FORWARDED_HEADER);
+    if (header == null) {
+      return false;
+    }
+    var fields = header.split(" ");
+    if (fields.length != 3 || !members.contains(fields[0])) {
+      return false;
+    }
+    var from = fields[0];
+    var millis = Try.of(() -> Long.parseLong(fields[1]));
+    if (millis.isFailure()
+        || Math.abs(System.currentTimeMillis() - millis.get()) > MAX_SKEW_MILLIS) {
+      return false;
+    }
+    var expected = signature(from, millis.get(), request.requestMethod(), pathAndQuery(request));
+    return MessageDigest.isEqual(
+        expected.getBytes(StandardCharsets.UTF_8), fields[2].getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Which node owns the given key? */
+  public String owner(String key) {
+    return ring.owner(key);
+  }
+
+  /**
+   * The node responsible for cluster-wide jobs, like generating the price feed. Every node agrees
+   * on which one that is, without needing to talk about it.
+   */
+  public String leader() {
+    return members.get(0);
+  }
+
+  /** Is this node the {@link #leader()}? */
+  public boolean isLeader() {
+    return leader().equals(self);
+  }
+
+  /**
+   * Fetches the given path (and query string) from another node, returning the body if the answer
+   * was a 200, or {@link Option#none()} if anything went wrong (which is logged).
+   */
+  public Option<String> fetch(String member, String pathAndQuery) {
+    var request =
+        HttpRequest.newBuilder(URI.create("http://" + member + pathAndQuery))
+            .timeout(TIMEOUT)
+            .header(FORWARDED_HEADER, sign("GET", pathAndQuery))
+            .build();
+    return Try.of(() -> client.send(request, HttpResponse.BodyHandlers.ofString()))
+        .filter(response -> response.statusCode() == 200)
+        .map(HttpResponse::body)
+        .onFailure(err -> Log.e(TAG, "fetch from " + member + pathAndQuery + " failed: " + err))
+        .toOption();
+  }
+
+  private void forward(String owner, Request request, Response response)
+      throws InterruptedException {
+    var target = pathAndQuery(request);
+    var builder =
+        HttpRequest.newBuilder(URI.create("http://" + owner + target))
+            .timeout(TIMEOUT)
+            .header(FORWARDED_HEADER, sign("GET", target));
+    Option.of(request.headers("If-None-Match"))
+        .forEach(tag -> builder.header("If-None-Match", tag));
+
+    HttpResponse<String> answer;
+    try {
+      answer = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+    } catch (IOException ex) {
+      failures.inc();
+      Log.e(TAG, "forwarding to " + owner + " failed: " + ex);
+      halt(502, "The node that owns this account isn't answering.");
+      return;
+    }
+
+    forwarded.inc();
+    for (var header : List.of("Content-Type", "ETag", "Cache-Control")) {
+      answer.headers().firstValue(header).ifPresent(value -> response.header(header, value));
+    }
+    halt(answer.statusCode(), answer.body());
+  }
+
+  /**
+   * Installs a Spark filter that forwards requests for the given routes (named as in {@link
+   * edu.xxx.web.Utils#routeKey(Request)}) to whichever node owns the key that <code>keyOf</code>
+   * extracts from the request. Requests this node owns, or that were forwarded here by another
+   * node, go on to the usual route handlers. Requests with a {@value #FORWARDED_HEADER} header
+   * that doesn't check out get a 403 (forbidden), on any route.
+   */
+  public void install(Set<String> routes, Function<Request, String> keyOf) {
+    Log.i(TAG, () -> self + " joining cluster " + members + ", leader " + leader());
+
+    before(
+        (request, response) -> {
+          if (isForwarded(request)) {
+            return;
+          }
+          if (request.headers(FORWARDED_HEADER) != null) {
+            rejected.inc();
+            Log.e(TAG, "rejected a request with an invalid cluster signature from " + request.ip());
+            halt(403, "Invalid cluster signature.");
+          }
+          if (!routes.contains(routeKey(request))) {
+            return;
+          }
+          var owner = ring.owner(keyOf.apply(request));
+          if (!owner.equals(self)) {
+            forward(owner, request, response);
+          }
+        });
+  }
+}
@@ -0,0 +1,88 @@
+package edu.xxx.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A consistent-hash ring, which decides which member of a cluster owns any given key (like an
+ * account name). Every member that builds a ring from the same list of members gets the same
+ * answers, no matter what order the list was in, so no coordination is needed.
+ *
+ * <p>Engineering notes: each member is placed on the ring at many pseudo-random points ("virtual
+ * nodes"), and a key belongs to whichever member owns the next point clockwise from the key's own
+ * hash. With enough virtual nodes, the keys are spread evenly, and adding or removing a member
+ * only moves the keys that belong to it, rather than reshuffling everything. Lookup is a binary
+ * search over a sorted array of points.
+ */
+public final class HashRing {
+  /** A reasonable number of virtual nodes per member for a small cluster. */
+  public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+  private static final class Point {
+    final long hash;
+    final String member;
+
+    Point(long hash, String member) {
+      this.hash = hash;
+      this.member = member;
+    }
+  }
+
+  private final long[] points;
+  private final String[] owners;
+
+  /** Builds a ring with the given members, each placed at the given number of points. */
+  public HashRing(Collection<String> members, int virtualNodes) {
+    if (members.isEmpty() || virtualNodes < 1) {
+      throw new IllegalArgumentException("a hash ring needs members and virtual nodes");
+    }
+    var entries = new ArrayList<Point>();
+    for (var member : members) {
+      for (int i = 0; i < virtualNodes; i++) {
+        entries.add(new Point(hash(member + "#" + i), member));
+      }
+    }
+    // Sort by point, breaking (astronomically unlikely) ties by member name, so every node agrees.
+    entries.sort(Comparator.comparingLong((Point p) -> p.hash).thenComparing(p -> p.member));
+
+    points = entries.stream().mapToLong(p -> p.hash).toArray();
+    owners = entries.stream().map(p -> p.member).toArray(String[]::new);
+  }
+
+  /** Which member owns the given key? */
+  public String owner(String key) {
+    int i = Arrays.binarySearch(points, hash(key));
+    if (i < 0) {
+      i = -i - 1; // binarySearch tells us where the key would be inserted, which is what we want
+    }
+    return owners[i == points.length ? 0 : i];
+  }
+
+  /** The distinct members of the ring, in sorted order. */
+  public List<String> members() {
+    return Arrays.stream(owners).distinct().sorted().collect(Collectors.toList());
+  }
+
+  /**
+   * A 64-bit hash of a string: FNV-1a over its characters, followed by MurmurHash3's finalizer to
+   * spread the bits around. It's not cryptographic, but it's fast, and (unlike {@link
+   * String#hashCode()}) it has plenty of bits and doesn't cluster similar strings together.
+   */
+  static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
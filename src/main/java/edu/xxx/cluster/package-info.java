@@ -0,0 +1,6 @@
+@javax.annotation.ParametersAreNonnullByDefault
+@javax.annotation.CheckReturnValue
+package edu.xxx.cluster;
+
+// See src/main/java/edu/xxx/package-info.java for details
+// on what this file is doing.
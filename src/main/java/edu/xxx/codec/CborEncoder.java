@@ -0,0 +1,181 @@
+package edu.xxx.codec;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An {@link Encoder} that writes <a href="https://www.rfc-editor.org/rfc/rfc8949.html">CBOR</a>
+ * (Concise Binary Object Representation), a binary encoding with the same data model as JSON, for
+ * which there are decoders in just about every language. Numbers take one to nine bytes rather than
+ * one character per digit, strings are length-prefixed rather than quoted and escaped, and there's
+ * no punctuation between values, so messages come out smaller, and decoders don't have to scan
+ * every character of every string looking for quotes.
+ *
+ * <p>Engineering notes: CBOR normally puts the number of entries at the front of every map and
+ * array, which we'd need to know before writing the first one, but it also allows "indefinite
+ * length" maps and arrays, ended by a special "break" byte, and that's what we use, so we can
+ * stream them just like JSON.
+ */
+public final class CborEncoder implements Encoder {
+  // Major types, which go in the top three bits of the first byte of each data item.
+  private static final int UNSIGNED = 0;
+  private static final int NEGATIVE = 1;
+  private static final int TEXT = 3;
+
+  // Whole first bytes of particular items.
+  private static final int ARRAY_INDEFINITE = 0x9f;
+  private static final int MAP_INDEFINITE = 0xbf;
+  private static final int FALSE = 0xf4;
+  private static final int TRUE = 0xf5;
+  private static final int NULL = 0xf6;
+  private static final int DOUBLE = 0xfb;
+  private static final int BREAK = 0xff;
+
+  private final OutputStream out;
+
+  /** Makes an encoder writing to the given stream, which it buffers. */
+  public CborEncoder(OutputStream out) {
+    this.out = new BufferedOutputStream(out);
+  }
+
+  @Override
+  public String contentType() {
+    return CBOR;
+  }
+
+  private void write(int b) {
+    try {
+      out.write(b);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private void write(byte[] bytes) {
+    try {
+      out.write(bytes);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Writes the first byte of a data item, with its major type, followed by its argument (a value,
+   * or a length), treated as unsigned, in as few bytes as possible.
+   */
+  private void head(int majorType, long argument) {
+    int type = majorType << 5;
+    if (argument >= 0 && argument < 24) {
+      write(type | (int) argument);
+      return;
+    }
+
+    int bytes;
+    if (argument >= 0 && argument < 0x100) {
+      write(type | 24);
+      bytes = 1;
+    } else if (argument >= 0 && argument < 0x10000) {
+      write(type | 25);
+      bytes = 2;
+    } else if (argument >= 0 && argument < 0x100000000L) {
+      write(type | 26);
+      bytes = 4;
+    } else {
+      write(type | 27);
+      bytes = 8;
+    }
+    for (int shift = 8 * (bytes - 1); shift >= 0; shift -= 8) {
+      write((int) (argument >>> shift) & 0xff);
+    }
+  }
+
+  private void string(String s) {
+    var bytes = s.getBytes(StandardCharsets.UTF_8);
+    head(TEXT, bytes.length);
+    write(bytes);
+  }
+
+  @Override
+  public Encoder beginObject() {
+    write(MAP_INDEFINITE);
+    return this;
+  }
+
+  @Override
+  public Encoder endObject() {
+    write(BREAK);
+    return this;
+  }
+
+  @Override
+  public Encoder beginArray() {
+    write(ARRAY_INDEFINITE);
+    return this;
+  }
+
+  @Override
+  public Encoder endArray() {
+    write(BREAK);
+    return this;
+  }
+
+  @Override
+  public Encoder key(String key) {
+    string(key);
+    return this;
+  }
+
+  @Override
+  public Encoder value(String value) {
+    string(value);
+    return this;
+  }
+
+  @Override
+  public Encoder value(long value) {
+    // Negative integers are written as -1 minus the argument, so -1 is 0, and so on.
+    if (value >= 0) {
+      head(UNSIGNED, value);
+    } else {
+      head(NEGATIVE, ~value);
+    }
+    return this;
+  }
+
+  @Override
+  public Encoder value(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return nullValue(); // CBOR could say it, but this way it means the same as in JSON
+    }
+    long bits = Double.doubleToLongBits(value);
+    write(DOUBLE);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      write((int) (bits >>> shift) & 0xff);
+    }
+    return this;
+  }
+
+  @Override
+  public Encoder value(boolean value) {
+    write(value ? TRUE : FALSE);
+    return this;
+  }
+
+  @Override
+  public Encoder nullValue() {
+    write(NULL);
+    return this;
+  }
+
+  @Override
+  public void flush() {
+    try {
+      out.flush();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+}
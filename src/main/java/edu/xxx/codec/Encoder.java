@@ -0,0 +1,131 @@
+package edu.xxx.codec;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import io.vavr.control.Option;
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+/**
+ * Writes structured data (objects, arrays, strings, numbers, and so on) straight to an output
+ * stream, one piece at a time, in some encoding. For example, this writes <code>
+ * {"response":"hello","cents":100}</code> in JSON:
+ *
+ * <pre>
+ * encoder.beginObject().field("response", "hello").field("cents", 100).endObject().flush();
+ * </pre>
+ *
+ * <p>Engineering notes: the usual way of making JSON, building a tree of {@link
+ * org.json.JSONObject}s and then calling <code>toString()</code> on it, allocates every node of the
+ * tree, then a string holding the whole document, and then a byte array holding that string
+ * encoded as UTF-8, before the first byte goes anywhere. An encoder skips all that, so there's
+ * nothing to garbage collect but a small buffer. The other benefit is that every encoder takes the
+ * same calls, so the same code can write JSON for web browsers and people, or {@link CborEncoder
+ * CBOR} for programs that would rather have smaller messages that are faster to parse.
+ *
+ * <p>It's up to the caller to make the calls in a sensible order (e.g., a key before every value
+ * in an object, and an end for every begin); encoders don't check. Any {@link java.io.IOException}
+ * from the output stream is rethrown as an {@link java.io.UncheckedIOException}.
+ */
+public interface Encoder extends Flushable {
+  /** The media type for JSON, as written by {@link JsonEncoder}. */
+  String JSON = "application/json";
+
+  /** The media type for CBOR (RFC 8949), as written by {@link CborEncoder}. */
+  String CBOR = "application/cbor";
+
+  /** This encoder's media type, suitable for a <code>Content-Type</code> header. */
+  String contentType();
+
+  /** Starts an object, whose contents are a {@link #key} before each value. */
+  @CanIgnoreReturnValue
+  Encoder beginObject();
+
+  /** Ends the object started by the matching {@link #beginObject}. */
+  @CanIgnoreReturnValue
+  Encoder endObject();
+
+  /** Starts an array, whose contents are any number of values. */
+  @CanIgnoreReturnValue
+  Encoder beginArray();
+
+  /** Ends the array started by the matching {@link #beginArray}. */
+  @CanIgnoreReturnValue
+  Encoder endArray();
+
+  /** Writes the key for the next value in an object. */
+  @CanIgnoreReturnValue
+  Encoder key(String key);
+
+  /** Writes a string value. */
+  @CanIgnoreReturnValue
+  Encoder value(String value);
+
+  /** Writes an integer value. */
+  @CanIgnoreReturnValue
+  Encoder value(long value);
+
+  /** Writes a floating-point value; NaN and the infinities, which JSON can't express, are null. */
+  @CanIgnoreReturnValue
+  Encoder value(double value);
+
+  /** Writes a boolean value. */
+  @CanIgnoreReturnValue
+  Encoder value(boolean value);
+
+  /** Writes a null value. */
+  @CanIgnoreReturnValue
+  Encoder nullValue();
+
+  /** Writes a key and its string value, in an object. */
+  @CanIgnoreReturnValue
+  default Encoder field(String key, String value) {
+    return key(key).value(value);
+  }
+
+  /** Writes a key and its integer value, in an object. */
+  @CanIgnoreReturnValue
+  default Encoder field(String key, long value) {
+    return key(key).value(value);
+  }
+
+  /** Writes a key and its floating-point value, in an object. */
+  @CanIgnoreReturnValue
+  default Encoder field(String key, double value) {
+    return key(key).value(value);
+  }
+
+  /** Writes out anything still buffered. Call this when you're done. */
+  @Override
+  void flush();
+
+  /** An encoder for the given media type ({@link #JSON} or {@link #CBOR}), if we have one. */
+  static Option<Encoder> create(String mediaType, OutputStream out) {
+    switch (mediaType) {
+      case JSON:
+        return Option.some(new JsonEncoder(out));
+      case CBOR:
+        return Option.some(new CborEncoder(out));
+      default:
+        return Option.none();
+    }
+  }
+
+  /**
+   * Encodes something in memory, for when there's no output stream to stream it to.
+   *
+   * @param mediaType {@link #JSON} or {@link #CBOR}
+   * @param writer Writes the data with the encoder it's given
+   * @throws IllegalArgumentException if we don't have an encoder for the media type
+   */
+  static byte[] encode(String mediaType, Consumer<Encoder> writer) {
+    var bytes = new ByteArrayOutputStream();
+    var encoder =
+        create(mediaType, bytes)
+            .getOrElseThrow(() -> new IllegalArgumentException("No encoder for " + mediaType));
+    writer.accept(encoder);
+    encoder.flush();
+    return bytes.toByteArray();
+  }
+}
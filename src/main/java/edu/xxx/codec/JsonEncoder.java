@@ -0,0 +1,205 @@
+package edu.xxx.codec;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/** An {@link Encoder} that writes compact JSON, in UTF-8. */
+public final class JsonEncoder implements Encoder {
+  private static final char LINE_SEPARATOR = 0x2028;
+  private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+  private final Writer out;
+
+  // How many objects and arrays we're inside, and for each of those levels, whether it has
+  // anything in it yet, in which case the next thing at that level needs a comma before it.
+  private int depth = 0;
+  private final BitSet nonEmpty = new BitSet();
+
+  // True between a key and its value, which doesn't get a comma.
+  private boolean afterKey = false;
+
+  /** Makes an encoder writing to the given stream, which it buffers. */
+  public JsonEncoder(OutputStream out) {
+    this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public String contentType() {
+    return JSON;
+  }
+
+  private void write(char c) {
+    try {
+      out.write(c);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private void write(String s, int start, int end) {
+    try {
+      out.write(s, start, end - start);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /** Writes a comma, if one is needed before the next value (or key). */
+  private void separate() {
+    if (afterKey) {
+      afterKey = false;
+    } else if (depth > 0) {
+      if (nonEmpty.get(depth)) {
+        write(',');
+      } else {
+        nonEmpty.set(depth);
+      }
+    }
+  }
+
+  private void begin(char bracket) {
+    separate();
+    write(bracket);
+    depth++;
+    nonEmpty.clear(depth);
+  }
+
+  private void end(char bracket) {
+    depth--;
+    write(bracket);
+  }
+
+  /**
+   * Writes a quoted string, escaping quotes, backslashes, control characters, and the two line
+   * separators that JSON allows but JavaScript string literals don't. Runs of characters that don't
+   * need escaping, which is almost all of them, are written in one go.
+   */
+  private void string(String s) {
+    write('"');
+    int start = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      boolean plain =
+          c >= 0x20 && c != '"' && c != '\\' && c != LINE_SEPARATOR && c != PARAGRAPH_SEPARATOR;
+      if (plain) {
+        continue;
+      }
+      write(s, start, i);
+      start = i + 1;
+      write('\\');
+      switch (c) {
+        case '"':
+        case '\\':
+          write(c);
+          break;
+        case '\n':
+          write('n');
+          break;
+        case '\r':
+          write('r');
+          break;
+        case '\t':
+          write('t');
+          break;
+        default:
+          var hex = Integer.toHexString(c);
+          write('u');
+          for (int pad = hex.length(); pad < 4; pad++) {
+            write('0');
+          }
+          write(hex, 0, hex.length());
+      }
+    }
+    write(s, start, s.length());
+    write('"');
+  }
+
+  @Override
+  public Encoder beginObject() {
+    begin('{');
+    return this;
+  }
+
+  @Override
+  public Encoder endObject() {
+    end('}');
+    return this;
+  }
+
+  @Override
+  public Encoder beginArray() {
+    begin('[');
+    return this;
+  }
+
+  @Override
+  public Encoder endArray() {
+    end(']');
+    return this;
+  }
+
+  @Override
+  public Encoder key(String key) {
+    separate();
+    string(key);
+    write(':');
+    afterKey = true;
+    return this;
+  }
+
+  @Override
+  public Encoder value(String value) {
+    separate();
+    string(value);
+    return this;
+  }
+
+  @Override
+  public Encoder value(long value) {
+    separate();
+    var digits = Long.toString(value);
+    write(digits, 0, digits.length());
+    return this;
+  }
+
+  @Override
+  public Encoder value(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return nullValue();
+    }
+    separate();
+    var digits = Double.toString(value);
+    write(digits, 0, digits.length());
+    return this;
+  }
+
+  @Override
+  public Encoder value(boolean value) {
+    separate();
+    var literal = value ? "true" : "false";
+    write(literal, 0, literal.length());
+    return this;
+  }
+
+  @Override
+  public Encoder nullValue() {
+    separate();
+    write("null", 0, 4);
+    return this;
+  }
+
+  @Override
+  public void flush() {
+    try {
+      out.flush();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+}
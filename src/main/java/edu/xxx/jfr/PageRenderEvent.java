@@ -0,0 +1,23 @@
+package edu.xxx.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder event for generating one HTML page with j2html. */
+@Name("edu.xxx.PageRender")
+@Label("Page Render")
+@Category({"CompYYY", "Web"})
+@Description("Generating an HTML page on the server")
+@StackTrace(false)
+public class PageRenderEvent extends jdk.jfr.Event {
+  @Label("Route")
+  public String route;
+
+  @Label("Rendered Size")
+  @DataAmount
+  public long bytes;
+}
@@ -0,0 +1,53 @@
+package edu.xxx.jfr;
+
+import edu.xxx.util.Log;
+import io.vavr.control.Try;
+import java.nio.file.Path;
+import java.time.Duration;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Helpers for starting Java Flight Recorder recordings from inside the program, rather than with
+ * <code>-XX:StartFlightRecording</code> on the command line.
+ *
+ * <p>Our custom events ({@link TradeEvent}, {@link PageRenderEvent}, {@link ScriptEvalEvent}) cost
+ * next to nothing when no recording is running: <code>commit()</code> notices that nobody's
+ * listening and returns, and the JIT compiler usually gets rid of the event object entirely.
+ * With a recording running, using the JDK's "default" settings, the overhead is typically around
+ * one percent, which is cheap enough to leave on in production.
+ */
+public interface Recordings {
+  /** How far back the continuous recording keeps data. */
+  Duration MAX_AGE = Duration.ofHours(1);
+
+  /** Upper bound on how much disk the continuous recording will use. */
+  long MAX_SIZE_BYTES = 256L * 1024 * 1024;
+
+  /**
+   * Starts a continuous, low-overhead flight recording, using the JDK's "default" configuration,
+   * that keeps the most recent hour (or so) of data in a ring buffer on disk and dumps it to the
+   * given file when the JVM exits. You can also dump it at any time with <code>
+   * jcmd &lt;pid&gt; JFR.dump</code>, and then open the result in JDK Mission Control. If the
+   * recording can't be started, that fact is logged, and we carry on without it.
+   */
+  static void startContinuous(Path destination) {
+    Try.of(
+            () -> {
+              var recording = new Recording(Configuration.getConfiguration("default"));
+              recording.setName("edu.xxx continuous");
+              recording.setToDisk(true);
+              recording.setMaxAge(MAX_AGE);
+              recording.setMaxSize(MAX_SIZE_BYTES);
+              recording.setDumpOnExit(true);
+              recording.setDestination(destination);
+              recording.enable(TradeEvent.class);
+              recording.enable(PageRenderEvent.class);
+              recording.enable(ScriptEvalEvent.class);
+              recording.start();
+              return recording;
+            })
+        .onSuccess(r -> Log.i("Recordings", "flight recording started, dumps to " + destination))
+        .onFailure(err -> Log.e("Recordings", "failed to start flight recording", err));
+  }
+}
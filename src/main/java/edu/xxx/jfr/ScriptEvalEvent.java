@@ -0,0 +1,31 @@
+package edu.xxx.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder event for one JavaScript evaluation in the web REPL. */
+@Name("edu.xxx.ScriptEval")
+@Label("Script Evaluation")
+@Category({"CompYYY", "Web"})
+@Description("Evaluating one command line in the JavaScript REPL")
+@StackTrace(false)
+public class ScriptEvalEvent extends jdk.jfr.Event {
+  @Label("Backend")
+  @Description("Which JavaScript engine evaluated the script, e.g. \"nashorn\" or \"graaljs\"")
+  public String backend;
+
+  @Label("Script Length")
+  @Description("Length of the command line, in characters")
+  public int scriptLength;
+
+  @Label("Outcome")
+  @Description("\"ok\", \"null\" if the script evaluated to null, or \"error\"")
+  public String outcome;
+
+  @Label("Result Length")
+  @Description("Length of the result (or error message), in characters")
+  public int resultLength;
+}
@@ -0,0 +1,34 @@
+package edu.xxx.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for a single buy or sell handled by the market server. The event's
+ * duration covers the whole request handler, so a slow trade shows up in JDK Mission Control right
+ * alongside whatever the garbage collector or the JIT compiler was doing at the time.
+ */
+@Name("edu.xxx.Trade")
+@Label("Trade")
+@Category({"CompYYY", "Market"})
+@Description("A buy or sell request handled by the market server")
+@StackTrace(false)
+public class TradeEvent extends jdk.jfr.Event {
+  @Label("Instrument")
+  @Description("Index of the fruit being traded, or -1 if the request had no valid index")
+  public int instrument = -1;
+
+  @Label("Side")
+  public String side;
+
+  @Label("Outcome")
+  @Description("\"true\" if the trade went through, \"false\" if it was refused, or \"invalid\"")
+  public String outcome;
+
+  @Label("Price")
+  @Description("Price of one unit of the instrument, in cents, at the time of the trade")
+  public int price;
+}
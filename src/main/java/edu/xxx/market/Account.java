@@ -0,0 +1,73 @@
+package edu.xxx.market;
+
+import java.util.stream.IntStream;
+
+/**
+ * One customer's funds and holdings. Trades are synchronized on the account, so two trades on the
+ * same account can't trample each other, while trades on different accounts never wait for one
+ * another. After every change, the account publishes freshly {@link Rendered} answers for the
+ * polling endpoints.
+ */
+final class Account {
+  /** How much money, in cents, a brand-new account starts out with. */
+  static final int INITIAL_FUNDS = 150;
+
+  final String id;
+  private int funds = INITIAL_FUNDS;
+  private final int[] holdings;
+  private long version = 0;
+
+  private volatile Rendered fundsView;
+  private volatile Rendered[] holdingsViews;
+
+  Account(String id, int nInstruments) {
+    this.id = id;
+    this.holdings = new int[nInstruments];
+    publish();
+  }
+
+  /** Renders the polling answers; call this after any change, while synchronized. */
+  private void publish() {
+    fundsView = new Rendered(MarketServer.asDollars(funds), "a" + version);
+    holdingsViews =
+        IntStream.range(0, holdings.length)
+            .mapToObj(i -> new Rendered(Integer.toString(holdings[i]), "a" + version + "." + i))
+            .toArray(Rendered[]::new);
+  }
+
+  /** Buys one of the given instrument at the given price, if there are enough funds. */
+  synchronized boolean buy(int index, int price) {
+    if (funds >= price) {
+      funds -= price;
+      ++holdings[index];
+      ++version;
+      publish();
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /** Sells one of the given instrument at the given price, if there are any to sell. */
+  synchronized boolean sell(int index, int price) {
+    if (holdings[index] > 0) {
+      funds += price;
+      --holdings[index];
+      ++version;
+      publish();
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /** The current funds, already rendered in dollars. */
+  Rendered fundsView() {
+    return fundsView;
+  }
+
+  /** The current holdings of the given instrument, already rendered. */
+  Rendered holdingsView(int index) {
+    return holdingsViews[index];
+  }
+}
@@ -0,0 +1,111 @@
+package edu.xxx.market;
+
+import com.beust.jcommander.Parameter;
+import edu.xxx.util.CommandLine;
+import edu.xxx.util.Log;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Runs a cluster of {@link MarketServer} nodes on this machine, each in its own JVM on its own
+ * port, for trying out the cluster mode and measuring how it scales. Point the {@link
+ * edu.xxx.web.LoadGenerator} at all of them at once, spreading the load over many accounts (the
+ * nodes' rate limits would otherwise lump all of its requests together, as one client):
+ *
+ * <pre>
+ * ./gradlew runLocalCluster --args="--nodes 4 --node-args '--no-rate-limits'"
+ * ./gradlew runLoadGenerator --args="--keys 10000 \
+ *     --url 'http://localhost:4567/buy/?index=0&amp;account=user{n}' \
+ *     --url 'http://localhost:4568/funds/?account=user{n}' ..."
+ * </pre>
+ *
+ * <p>Engineering notes: Spark itself could run several servers in one JVM (each {@link
+ * spark.Service#ignite()} is a separate one), but {@link MarketServer} keeps all its state in
+ * static fields and sets itself up through Spark's static API, which is one shared {@link
+ * spark.Service}, so each node needs a JVM of its own. That's closer to a real deployment anyway,
+ * since the nodes don't share a heap, a garbage collector, or a JIT compiler, but they do still
+ * share this machine's processors, so the cluster can't scale past what the machine can do.
+ */
+public class LocalCluster {
+  private static final String TAG = "LocalCluster";
+
+  /** Command-line options for the local cluster. */
+  static class Options {
+    @Parameter(names = "--nodes", description = "How many MarketServer nodes to run")
+    int nodes = 3;
+
+    @Parameter(names = "--base-port", description = "Port for the first node; the rest count up")
+    int basePort = 4567;
+
+    @Parameter(
+        names = "--node-args",
+        description = "Extra arguments for every node, as one string, e.g. '--virtual-threads'")
+    String nodeArgs = "";
+
+    @Parameter(
+        names = {"--help", "-h"},
+        description = "Print this help message and exit",
+        help = true)
+    boolean help = false;
+  }
+
+  /** Main method: run with --help to see the options. */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    var options = new Options();
+    CommandLine.parse("LocalCluster", args, options);
+
+    var members =
+        IntStream.range(options.basePort, options.basePort + options.nodes)
+            .mapToObj(port -> "localhost:" + port)
+            .collect(Collectors.toList());
+    var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+    // A fresh secret for the nodes to sign their forwarded requests with, readable only by us.
+    var secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    var secretFile =
+        Files.createTempFile(
+            "cluster",
+            ".secret",
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    secretFile.toFile().deleteOnExit();
+    Files.writeString(secretFile, Base64.getEncoder().encodeToString(secret));
+
+    var processes = new ArrayList<Process>();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> processes.forEach(Process::destroy)));
+
+    for (int i = 0; i < options.nodes; i++) {
+      var command =
+          new ArrayList<>(
+              List.of(
+                  java,
+                  "-cp",
+                  System.getProperty("java.class.path"),
+                  MarketServer.class.getName(),
+                  "--port",
+                  Integer.toString(options.basePort + i),
+                  "--cluster",
+                  String.join(",", members),
+                  "--cluster-secret-file",
+                  secretFile.toString(),
+                  "--no-browser"));
+      if (!options.nodeArgs.isBlank()) {
+        command.addAll(List.of(options.nodeArgs.trim().split("\\s+")));
+      }
+      processes.add(new ProcessBuilder(command).inheritIO().start());
+    }
+    Log.i(TAG, "started " + members + "; press Control-C to stop them all");
+
+    for (var process : processes) {
+      process.waitFor();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package edu.xxx.market;
+
+import com.beust.jcommander.Parameter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Command-line options specific to the {@link MarketServer}, parsed alongside the usual {@link
+ * edu.xxx.web.ServerOptions}.
+ */
+class MarketOptions {
+  @Parameter(
+      names = "--cluster",
+      description =
+          "Comma-separated host:port of every node in the cluster (including this one);"
+              + " accounts are spread across them")
+  List<String> cluster = new ArrayList<>();
+
+  @Parameter(
+      names = "--self",
+      description = "This node's host:port, as it appears in --cluster (default localhost:--port)")
+  @Nullable
+  String self = null;
+
+  @Parameter(
+      names = "--cluster-secret-file",
+      description =
+          "File holding the secret that every node in the --cluster shares, which they use to"
+              + " authenticate the requests they forward to each other (required with --cluster)")
+  @Nullable
+  String clusterSecretFile = null;
+
+  @Parameter(
+      names = "--max-accounts",
+      description = "Most accounts this node will open; purchases by new accounts fail beyond that")
+  int maxAccounts = 100_000;
+
+  @Parameter(
+      names = "--price-model",
+      description =
+          "How prices move: "
+              + PriceModel.UNIFORM
+              + ", "
+              + PriceModel.GBM
+              + " (geometric Brownian motion), or "
+              + PriceModel.MEAN_REVERTING)
+  String priceModel = PriceModel.UNIFORM;
+
+  @Parameter(
+      names = "--seed",
+      description = "Seed for the prices, to get the same prices every run (default: random)")
+  @Nullable
+  Long seed = null;
+
+  @Parameter(
+      names = "--trade-dir",
+      description = "Directory where every trade is recorded (default trades/<port>)")
+  @Nullable
+  String tradeDirectory = null;
+}
@@ -1,6 +1,7 @@
 
 package edu.xxx.market;
 
+import static edu.xxx.web.HttpCaching.notModified;
 import static edu.xxx.web.Utils.jsonSparkExceptionHandler;
 import static edu.xxx.web.Utils.launchBrowser;
 import static edu.xxx.web.Utils.logSparkRequest;
@@ -19,14 +20,40 @@ import static j2html.TagCreator.table;
 import static j2html.TagCreator.td;
 import static j2html.TagCreator.text;
 import static j2html.TagCreator.tr;
+import static java.util.stream.Collectors.joining;
 import static spark.Spark.get;
 import static spark.Spark.redirect;
-import static spark.Spark.staticFileLocation;
 
+import edu.xxx.cluster.ClusterRouter;
+import edu.xxx.jfr.PageRenderEvent;
+import edu.xxx.jfr.TradeEvent;
+import edu.xxx.metrics.Counter;
+import edu.xxx.metrics.Metrics;
 import edu.xxx.util.Log;
+import edu.xxx.web.AdmissionControl;
+import edu.xxx.web.AdmissionControl.Priority;
+import edu.xxx.web.LogLevels;
+import edu.xxx.web.RateLimiter;
+import edu.xxx.web.Responses;
+import edu.xxx.web.ServerOptions;
+import edu.xxx.web.SparkMetrics;
+import edu.xxx.web.StaticAssets;
 import io.vavr.control.Option;
+import io.vavr.control.Try;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.json.JSONArray;
 import spark.Request;
 import spark.Response;
 import spark.Route;
@@ -35,12 +62,126 @@ import spark.Route;
 public class MarketServer {
   private static final String TAG = "MarketServer";
 
-  private static SecureRandom random = new SecureRandom();
-
-  private static int funds = 150;
   private static int nFruits = 3;
   private static int[] prices = IntStream.generate(() -> 100).limit(nFruits).toArray();
-  private static int[] holdings = IntStream.generate(() -> 0).limit(nFruits).toArray();
+
+  private static long priceTick = 0; // only touched by the thread that updates the prices
+  private static volatile Rendered[] priceViews = renderPrices();
+  private static volatile String priceFeed = renderPriceFeed();
+
+  // How often a follower in a cluster asks the leader for the latest prices.
+  private static final long FOLLOW_INTERVAL_MILLIS = 200;
+
+  /** Every account this node owns, opened by its first purchase. */
+  private static final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+  /** What any account looks like before it's opened; nobody ever trades on this one. */
+  private static final Account NEW_ACCOUNT = new Account("", nFruits);
+
+  // Since anybody can make up a new account name, there's a limit on how many we'll open.
+  private static int maxAccounts = Integer.MAX_VALUE;
+  private static final Counter accountsRefused =
+      Metrics.counter(
+          "market_accounts_refused_total", "Purchases refused because --max-accounts was reached.");
+
+  /** Portfolio values for all those accounts, kept up to date as prices change. */
+  private static final Valuation valuation =
+      new Valuation(4 * Runtime.getRuntime().availableProcessors(), prices);
+
+  private static final int DEFAULT_LEADERS = 10;
+
+  /** Where every trade is recorded, for later analysis, unless the store couldn't be opened. */
+  private static Option<TradeStore> tradeStore = Option.none();
+
+  private static final String DEFAULT_ACCOUNT = "default";
+  private static final int MAX_ACCOUNT_ID_LENGTH = 64;
+
+  private static Rendered[] renderPrices() {
+    return IntStream.range(0, nFruits)
+        .mapToObj(i -> new Rendered(asDollars(prices[i]), "p" + priceTick + "." + i))
+        .toArray(Rendered[]::new);
+  }
+
+  /** The prices as the other nodes in a cluster fetch them: the tick, then each price in cents. */
+  private static String renderPriceFeed() {
+    return Stream.concat(
+            Stream.of(Long.toString(priceTick)), Arrays.stream(prices).mapToObj(Integer::toString))
+        .collect(joining(" "));
+  }
+
+  /** Call this after changing the prices, from the thread that updates them. */
+  private static void publishPrices(long tick) {
+    priceTick = tick;
+    priceViews = renderPrices();
+    priceFeed = renderPriceFeed();
+    valuation.reprice(prices);
+  }
+
+  /** Adopts the prices from the cluster leader's price feed, if they're new to us. */
+  private static void followPrices(String feed) {
+    Try.of(() -> Arrays.stream(feed.trim().split(" ")).mapToLong(Long::parseLong).toArray())
+        .filter(fields -> fields.length == nFruits + 1)
+        .onFailure(err -> Log.e(TAG, "malformed price feed: " + feed))
+        .forEach(
+            fields -> {
+              if (fields[0] != priceTick) {
+                for (int i = 0; i < nFruits; i++) {
+                  prices[i] = (int) fields[i + 1];
+                }
+                publishPrices(fields[0]);
+              }
+            });
+  }
+
+  /**
+   * Extracts the account name from a request's <code>account</code> parameter. Requests without
+   * one all share a single default account, just like before we had accounts.
+   */
+  static String accountId(Request request) {
+    return Option.of(request.queryParams("account"))
+        .filter(id -> !id.isEmpty() && id.length() <= MAX_ACCOUNT_ID_LENGTH)
+        .getOrElse(DEFAULT_ACCOUNT);
+  }
+
+  /**
+   * Finds the account a request is about, for looking at. Looking doesn't open an account, so an
+   * account that hasn't been opened yet looks like a brand new one.
+   */
+  private static Account viewAccount(Request request) {
+    return accounts.getOrDefault(accountId(request), NEW_ACCOUNT);
+  }
+
+  /**
+   * Finds the account a request is about, for trading, opening it if it's new, unless we already
+   * have {@link #maxAccounts}. Concurrent requests can overshoot that by a few, which is fine.
+   */
+  private static Option<Account> openAccount(Request request) {
+    var id = accountId(request);
+    var account = accounts.get(id);
+    if (account != null) {
+      return Option.some(account);
+    }
+    if (accounts.size() >= maxAccounts) {
+      accountsRefused.inc();
+      return Option.none();
+    }
+    return Option.some(
+        accounts.computeIfAbsent(
+            id,
+            key -> {
+              valuation.register(key);
+              return new Account(key, nFruits);
+            }));
+  }
+
+  /** Reads the secret that the nodes in a cluster share, from the given file. */
+  private static byte[] readClusterSecret(@Nullable String file) {
+    if (file == null) {
+      throw new IllegalArgumentException("--cluster requires --cluster-secret-file");
+    }
+    return Try.of(() -> Files.readString(Path.of(file)).trim().getBytes(StandardCharsets.UTF_8))
+        .getOrElseThrow(err -> new IllegalArgumentException("Can't read " + file, err));
+  }
 
   /** Extracts the fruit index from a request. */
   private static Option<Integer> getIndex(Request request) {
@@ -57,59 +198,206 @@ public class MarketServer {
     return Option.none();
   }
 
-  /** Converts cents to a string representation in dollars. */
-  private static String asDollars(int cents) {
-    return String.format("$%d.%02d", cents / 100, cents % 100);
+  /** Extracts the number of leaders wanted from a request, between 1 and the maximum. */
+  private static int getLeaderCount(Request request) {
+    return Option.of(request.queryParams("n"))
+        .flatMap(n -> Try.of(() -> Integer.parseInt(n)).toOption())
+        .map(n -> Math.max(1, Math.min(n, Valuation.MAX_LEADERS)))
+        .getOrElse(DEFAULT_LEADERS);
+  }
+
+  /**
+   * Sends a leaderboard as an array of {account, value, cents} objects, best first, in JSON, or
+   * CBOR for clients that ask for it.
+   */
+  private static String renderLeaders(
+      Request request, Response response, List<Valuation.Leader> leaders) {
+    return Responses.encoded(
+        request,
+        response,
+        out -> {
+          out.beginArray();
+          for (var leader : leaders) {
+            out.beginObject()
+                .field("account", leader.id)
+                .field("value", asDollars(leader.valueCents))
+                .field("cents", leader.valueCents)
+                .endObject();
+          }
+          out.endArray();
+        });
+  }
+
+  /** Reads back a leaderboard from {@link #renderLeaders}, e.g., one from another node. */
+  private static List<Valuation.Leader> parseLeaders(String json) {
+    var array = new JSONArray(json);
+    return IntStream.range(0, array.length())
+        .mapToObj(array::getJSONObject)
+        .map(o -> new Valuation.Leader(o.getString("account"), o.getLong("cents")))
+        .collect(Collectors.toList());
+  }
+
+  /** Converts cents to a string representation in dollars, like $1.05, or -$1.05. */
+  static String asDollars(long cents) {
+    long abs = Math.abs(cents);
+    return String.format("%s$%d.%02d", cents < 0 ? "-" : "", abs / 100, abs % 100);
   }
 
   private static class TransactionHandler implements Route {
     boolean buying;
+    Counter succeeded;
+    Counter failed;
+    Counter invalid;
 
     TransactionHandler(boolean buying) {
       this.buying = buying;
+      this.succeeded = tradeCounter(buying, "true");
+      this.failed = tradeCounter(buying, "false");
+      this.invalid = tradeCounter(buying, "invalid");
+    }
+
+    private static Counter tradeCounter(boolean buying, String outcome) {
+      return Metrics.counter(
+          "market_trades_total",
+          "Trades attempted, by side and outcome.",
+          "side",
+          buying ? "buy" : "sell",
+          "outcome",
+          outcome);
     }
 
     @Override
     public Object handle(Request request, Response response) {
+      var event = new TradeEvent(); // for the flight recorder, if it's running
+      event.begin();
+      event.side = buying ? "buy" : "sell";
+
       logSparkRequest(TAG, request);
       response.header("cache-control", "no-cache"); // because we're regenerating it every time
       Option<Integer> optIndex = getIndex(request);
-      return optIndex.fold(
-          () -> {
-            response.status(404);
-            return "Invalid fruit index.";
-          },
-          index -> {
-            response.status(200); // okay!
-            int price = prices[index];
-            if (buying) {
-              if (funds >= price) {
-                funds -= price;
-                ++holdings[index];
-                return "true";
-              } else {
-                return "false";
-              }
-            } else {
-              if (holdings[index] > 0) {
-                funds += price;
-                --holdings[index];
-                return "true";
-              } else {
-                return "false";
-              }
-            }
-          });
+      String result =
+          optIndex.fold(
+              () -> {
+                invalid.inc();
+                event.outcome = "invalid";
+                response.status(404);
+                return "Invalid fruit index.";
+              },
+              index -> {
+                response.status(200); // okay!
+                int price = prices[index];
+                event.instrument = index;
+                event.price = price;
+                // Selling from an account that isn't open yet always fails, so only buying opens.
+                var optAccount =
+                    buying ? openAccount(request) : Option.of(accounts.get(accountId(request)));
+                if (optAccount.isEmpty() && buying) {
+                  failed.inc();
+                  event.outcome = "false"; // a refused trade, as far as the recording's concerned
+                  response.status(503);
+                  return "No room for new accounts.";
+                }
+                boolean traded =
+                    optAccount.exists(
+                        account -> buying ? account.buy(index, price) : account.sell(index, price));
+                if (traded) {
+                  var account = optAccount.get();
+                  valuation.trade(account.id, index, buying ? 1 : -1, price);
+                  tradeStore.forEach(store -> store.append(account.id, index, buying, price, 1));
+                }
+                (traded ? succeeded : failed).inc();
+                event.outcome = Boolean.toString(traded);
+                return event.outcome;
+              });
+
+      event.commit();
+      return result;
     }
   }
 
-  /** Main method to initialize the web server; args are ignored. */
+  /** Main method to initialize the web server; run with --help to see the available options. */
   public static void main(String[] args) {
+    var marketOptions = new MarketOptions();
+    var options = ServerOptions.parse("MarketServer", args, marketOptions);
     Log.i(TAG, "Starting!");
+    options.apply();
+    maxAccounts = marketOptions.maxAccounts;
+
+    Option<ClusterRouter> cluster =
+        marketOptions.cluster.isEmpty()
+            ? Option.none()
+            : Option.some(
+                new ClusterRouter(
+                    Option.of(marketOptions.self).getOrElse("localhost:" + options.port),
+                    marketOptions.cluster,
+                    readClusterSecret(marketOptions.clusterSecretFile)));
+
+    // Without --seed, pick a seed at random, but log it, so any run's prices can be replayed.
+    long seed = Option.of(marketOptions.seed).getOrElse(() -> new SecureRandom().nextLong());
+    var model =
+        PriceModel.named(marketOptions.priceModel)
+            .getOrElseThrow(
+                () ->
+                    new IllegalArgumentException(
+                        "Unknown price model " + marketOptions.priceModel));
+    var simulator = new PriceSimulator(model, seed, prices);
+    Log.i(TAG, "Prices: " + marketOptions.priceModel + " model, --seed " + seed);
+
+    // Each node in a cluster has a store of its own, for the accounts it owns.
+    var tradeDirectory =
+        Option.of(marketOptions.tradeDirectory).getOrElse("trades/" + options.port);
+    tradeStore =
+        TradeStore.open(Path.of(tradeDirectory), nFruits)
+            .onFailure(err -> Log.e(TAG, "Not recording trades in " + tradeDirectory, err))
+            .toOption();
 
-    staticFileLocation("/WebPublic");
     jsonSparkExceptionHandler(TAG); // set up an exception handler
-    launchBrowser("http://localhost:4567/"); // help users find our server
+    SparkMetrics.install(); // per-route request counts and latencies, served at /metrics
+    LogLevels.install(); // view and change log levels at /admin/log/
+    tradeStore.forEach(store -> TradeAnalytics.install(store, prices::clone)); // /admin/trades/
+
+    // Static files come first, so the page's images, styles, and scripts under /market/ don't use
+    // up the rate limit for /market/ itself, or count against it for admission control.
+    StaticAssets.install("/WebPublic"); // precompressed, cacheable static files
+
+    // Per-client limits. The web page polls prices, holdings, and funds about 7 times a second.
+    RateLimiter.limit("/buy/", 10, 20);
+    RateLimiter.limit("/sell/", 10, 20);
+    RateLimiter.limit("/price/", 30, 60);
+    RateLimiter.limit("/holdings/", 30, 60);
+    RateLimiter.limit("/funds/", 15, 30);
+    RateLimiter.limit("/market/", 5, 20);
+    RateLimiter.limit("/value/", 15, 30);
+    RateLimiter.limit("/leaderboard/", 5, 10);
+    // Forwarded requests were already rate-limited by the node the client is talking to.
+    cluster.forEach(router -> RateLimiter.exempt(router::isForwarded));
+    RateLimiter.install();
+
+    // Anything about an account goes to the node that owns the account; prices are everywhere.
+    // This comes before admission control, so that it's up to the node that does the work
+    // whether to take a request on. Otherwise, the time a request spent waiting for another node
+    // would look like queueing here, and this node would start turning away its own requests.
+    cluster.forEach(
+        router ->
+            router.install(
+                Set.of("/buy/", "/sell/", "/funds/", "/holdings/", "/value/", "/market/"),
+                MarketServer::accountId));
+
+    // When overloaded, shed polling and page loads first, so trades keep going through.
+    AdmissionControl.priority("/buy/", Priority.CRITICAL);
+    AdmissionControl.priority("/sell/", Priority.CRITICAL);
+    AdmissionControl.priority("/price/", Priority.LOW);
+    AdmissionControl.priority("/holdings/", Priority.LOW);
+    AdmissionControl.priority("/funds/", Priority.LOW);
+    AdmissionControl.priority("/market/", Priority.LOW);
+    AdmissionControl.priority("/value/", Priority.LOW);
+    AdmissionControl.priority("/leaderboard/", Priority.LOW);
+    AdmissionControl.priority("/admin/", Priority.LOW); // including trade queries
+    AdmissionControl.install();
+
+    if (!options.noBrowser) {
+      launchBrowser("http://localhost:" + options.port + "/"); // help users find our server
+    }
 
     redirect.get("/", "/market/");
 
@@ -117,7 +405,12 @@ public class MarketServer {
     get(
         "/market/",
         (request, response) -> {
+          var event = new PageRenderEvent(); // for the flight recorder, if it's running
+          event.begin();
+
           logSparkRequest(TAG, request);
+          var account = viewAccount(request);
+          var quotes = priceViews;
           response.status(200); // okay!
           response.header("cache-control", "no-cache"); // because we're regenerating it every time
 
@@ -134,7 +427,7 @@ public class MarketServer {
                       p().withClass("box")
                           .with(
                               text("Current funds: "),
-                              span().withId("funds").withText(asDollars(funds))),
+                              span().withId("funds").withText(account.fundsView().text)),
                       form()
                           .with(
                               table()
@@ -148,13 +441,12 @@ public class MarketServer {
                                                       text("x "),
                                                       span()
                                                           .withId("apple-holdings")
-                                                          .withText(
-                                                              Integer.toString(holdings[0])))),
+                                                          .withText(account.holdingsView(0).text))),
                                       tr().with(
                                               td().with(
                                                       span()
                                                           .withId("apple-price")
-                                                          .withText(asDollars(prices[0])),
+                                                          .withText(quotes[0].text),
                                                       text(" per lb."))),
                                       tr().with(
                                               td().with(
@@ -177,13 +469,12 @@ public class MarketServer {
                                                       text("x "),
                                                       span()
                                                           .withId("orange-holdings")
-                                                          .withText(
-                                                              Integer.toString(holdings[1])))),
+                                                          .withText(account.holdingsView(1).text))),
                                       tr().with(
                                               td().with(
                                                       span()
                                                           .withId("orange-price")
-                                                          .withText(asDollars(prices[1])),
+                                                          .withText(quotes[1].text),
                                                       text(" per lb."))),
                                       tr().with(
                                               td().with(
@@ -206,13 +497,12 @@ public class MarketServer {
                                                       text("x "),
                                                       span()
                                                           .withId("banana-holdings")
-                                                          .withText(
-                                                              Integer.toString(holdings[2])))),
+                                                          .withText(account.holdingsView(2).text))),
                                       tr().with(
                                               td().with(
                                                       span()
                                                           .withId("banana-price")
-                                                          .withText(asDollars(prices[2])),
+                                                          .withText(quotes[2].text),
                                                       text(" per lb."))),
                                       tr().with(
                                               td().with(
@@ -227,23 +517,34 @@ public class MarketServer {
                                                           .withId("sell-banana")
                                                           .withClass("sell-button")
                                                           .withText("Sell"))))));
-          return html().with(head, body).renderFormatted();
+          var page = html().with(head, body).renderFormatted();
+
+          if (event.shouldCommit()) {
+            event.route = "/market/";
+            event.bytes = page.getBytes(StandardCharsets.UTF_8).length;
+            event.commit();
+          }
+          return page;
         });
 
     // Get the user's current funds.
     get(
         "/funds/",
         (request, response) -> {
+          response.header("cache-control", "no-cache"); // revalidate every time, using the ETag
+          var view = viewAccount(request).fundsView();
+          if (notModified(request, response, view.etag)) {
+            return "";
+          }
           response.status(200); // okay!
-          response.header("cache-control", "no-cache"); // because we're regenerating it every time
-          return asDollars(funds);
+          return view.text;
         });
 
     // Get the current price of a certain fruit.
     get(
         "/price/",
         (request, response) -> {
-          response.header("cache-control", "no-cache"); // because we're regenerating it every time
+          response.header("cache-control", "no-cache"); // revalidate every time, using the ETag
           Option<Integer> optIndex = getIndex(request);
           return optIndex.fold(
               () -> {
@@ -251,8 +552,12 @@ public class MarketServer {
                 return "Invalid fruit index.";
               },
               index -> {
+                var view = priceViews[index];
+                if (notModified(request, response, view.etag)) {
+                  return "";
+                }
                 response.status(200); // okay!
-                return asDollars(prices[index]);
+                return view.text;
               });
         });
 
@@ -260,7 +565,7 @@ public class MarketServer {
     get(
         "/holdings/",
         (request, response) -> {
-          response.header("cache-control", "no-cache"); // because we're regenerating it every time
+          response.header("cache-control", "no-cache"); // revalidate every time, using the ETag
           Option<Integer> optIndex = getIndex(request);
           return optIndex.fold(
               () -> {
@@ -268,25 +573,79 @@ public class MarketServer {
                 return "Invalid fruit index.";
               },
               index -> {
+                var view = viewAccount(request).holdingsView(index);
+                if (notModified(request, response, view.etag)) {
+                  return "";
+                }
                 response.status(200); // okay!
-                return holdings[index];
+                return view.text;
               });
         });
 
+    // Get the current value of the user's funds and holdings, at the current prices.
+    get(
+        "/value/",
+        (request, response) -> {
+          response.header("cache-control", "no-cache"); // because prices change all the time
+          response.status(200); // okay!
+          return asDollars(
+              valuation.value(accountId(request)).getOrElse((long) Account.INITIAL_FUNDS));
+        });
+
+    // Get the most valuable accounts, best first, from every node in the cluster, unless this
+    // request is from another node that just wants our local leaders.
+    get(
+        "/leaderboard/",
+        (request, response) -> {
+          int n = getLeaderCount(request);
+          response.header("cache-control", "no-cache"); // because prices change all the time
+          if (cluster.isEmpty() || request.queryParams("local") != null) {
+            return renderLeaders(request, response, valuation.leaders(n));
+          }
+          var router = cluster.get();
+          var leaders =
+              router.members().stream()
+                  .map(
+                      member ->
+                          member.equals(router.self())
+                              ? valuation.leaders(n)
+                              : router
+                                  .fetch(member, "/leaderboard/?local=true&n=" + n)
+                                  .map(MarketServer::parseLeaders)
+                                  .getOrElse(List.of()));
+          return renderLeaders(request, response, Valuation.merge(leaders, n));
+        });
+
     // Buy a fruit.
     get("/buy/", new TransactionHandler(true));
 
     // Sell a fruit.
     get("/sell/", new TransactionHandler(false));
 
-    // Change prices randomly once per second.
+    // The price feed that the other nodes in a cluster follow.
+    get(
+        "/internal/prices/",
+        (request, response) -> {
+          response.header("cache-control", "no-store");
+          return priceFeed;
+        });
+
+    options.ready();
+
+    // Move prices along once per second. In a cluster, only the leader does this, and
+    // everybody else keeps up with the leader's prices, so all the nodes quote the same prices.
     //noinspection InfiniteLoopStatement
     while (true) { // Keep updating the price as long as the server is running.
       try {
-        for (int i = 0; i < prices.length; ++i) {
-          prices[i] = 90 + random.nextInt(20);
+        if (cluster.forAll(ClusterRouter::isLeader)) {
+          simulator.step(prices);
+          publishPrices(priceTick + 1);
+          Thread.sleep(1000);
+        } else {
+          var router = cluster.get();
+          router.fetch(router.leader(), "/internal/prices/").forEach(MarketServer::followPrices);
+          Thread.sleep(FOLLOW_INTERVAL_MILLIS);
         }
-        Thread.sleep(1000);
       } catch (InterruptedException ex) {
         Log.e(TAG, ex.getMessage());
       }
@@ -0,0 +1,87 @@
+package edu.xxx.market;
+
+import io.vavr.control.Option;
+import java.util.SplittableRandom;
+
+/**
+ * A rule for how one instrument's price (in cents) moves from one tick to the next. Models get
+ * their randomness from the {@link SplittableRandom} they're handed, and nowhere else, so the same
+ * seed always produces the same prices.
+ *
+ * <p>Models work with fractions of a cent, and only the {@link PriceSimulator} rounds to whole
+ * cents, when it publishes the prices. Rounding every tick would get in the way of small moves:
+ * with geometric Brownian motion, for example, a price of 1 cent moves by about 2% of a cent per
+ * tick, which always rounds back to 1 cent, so once a price got that low, it would never move
+ * again.
+ */
+@FunctionalInterface
+interface PriceModel {
+  /** Name of the {@link #uniform} model, with the same prices we've always had. */
+  String UNIFORM = "uniform";
+  /** Name of the {@link #geometricBrownian} model. */
+  String GBM = "gbm";
+  /** Name of the {@link #meanReverting} model. */
+  String MEAN_REVERTING = "mean-reverting";
+
+  /** Given the current price, picks the price for the next tick. */
+  double next(double price, SplittableRandom random);
+
+  /** Every tick, a fresh price between <code>low</code> and <code>high</code> (exclusive). */
+  static PriceModel uniform(int low, int high) {
+    return (price, random) -> random.nextInt(low, high);
+  }
+
+  /**
+   * Geometric Brownian motion, the textbook model of a stock price: each tick, the price is
+   * multiplied by a random factor, with the given average growth (drift) and standard deviation
+   * (volatility) per tick, so prices wander off in either direction but never go negative.
+   */
+  static PriceModel geometricBrownian(double drift, double volatility) {
+    double meanLog = drift - volatility * volatility / 2;
+    return (price, random) -> price * Math.exp(meanLog + volatility * nextGaussian(random));
+  }
+
+  /**
+   * An Ornstein-Uhlenbeck process: each tick, the price moves the given fraction (speed) of the way
+   * back toward <code>mean</code>, plus some normally distributed noise with the given standard
+   * deviation (in cents), so prices wander, but not far. (Far enough below the mean, that could
+   * take a price below zero, but it's quoted as one cent until it comes back.)
+   */
+  static PriceModel meanReverting(int mean, double speed, double volatility) {
+    return (price, random) -> price + speed * (mean - price) + volatility * nextGaussian(random);
+  }
+
+  /** One of the models, with our default parameters, by name; see the constants above. */
+  static Option<PriceModel> named(String name) {
+    switch (name) {
+      case UNIFORM:
+        return Option.some(uniform(90, 110));
+      case GBM:
+        return Option.some(geometricBrownian(0.0, 0.02));
+      case MEAN_REVERTING:
+        return Option.some(meanReverting(100, 0.1, 3.0));
+      default:
+        return Option.none();
+    }
+  }
+
+  /** A model's price, rounded to the nearest whole cent, but always at least one cent. */
+  static int toCents(double price) {
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(price)));
+  }
+
+  /**
+   * A normally distributed random number (mean 0, standard deviation 1), using Marsaglia's polar
+   * method, since {@link SplittableRandom} doesn't have <code>nextGaussian()</code> until Java 17.
+   */
+  static double nextGaussian(SplittableRandom random) {
+    while (true) {
+      double u = 2 * random.nextDouble() - 1;
+      double v = 2 * random.nextDouble() - 1;
+      double s = u * u + v * v;
+      if (s > 0 && s < 1) {
+        return u * Math.sqrt(-2 * Math.log(s) / s);
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package edu.xxx.market;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Moves a set of instrument prices forward one tick at a time, according to a {@link PriceModel}.
+ *
+ * <p>Engineering notes: each instrument has its own {@link SplittableRandom}, split off from one
+ * seeded root, so there's no shared random number generator for threads to fight over (unlike,
+ * say, one {@link java.security.SecureRandom} for everything, which is also far slower than we
+ * need for a simulation). That also means every instrument's sequence of prices depends only on
+ * the seed, and not on which thread happened to compute it, so we can update large sets of
+ * instruments in parallel and still get exactly the same market every time for the same seed.
+ *
+ * <p>The simulator keeps each instrument's price to a fraction of a cent, and the prices it
+ * publishes are those rounded to whole cents, since that's what everything else deals in; see
+ * {@link PriceModel}.
+ */
+final class PriceSimulator {
+  /** With at least this many instruments, each tick is computed in parallel. */
+  static final int PARALLEL_THRESHOLD = 4096;
+
+  private final PriceModel model;
+  private final SplittableRandom[] streams;
+  private final double[] state;
+
+  /**
+   * Makes a simulator for instruments starting at the given prices (in cents), seeded for
+   * reproducibility.
+   */
+  PriceSimulator(PriceModel model, long seed, int[] initialPrices) {
+    this.model = model;
+    var root = new SplittableRandom(seed);
+    this.streams = new SplittableRandom[initialPrices.length];
+    this.state = new double[initialPrices.length];
+    for (int i = 0; i < initialPrices.length; i++) {
+      streams[i] = root.split();
+      state[i] = initialPrices[i];
+    }
+  }
+
+  /** Moves every price on to the next tick, and publishes them, in whole cents, into prices. */
+  void step(int[] prices) {
+    var indices = IntStream.range(0, state.length);
+    if (state.length >= PARALLEL_THRESHOLD) {
+      indices = indices.parallel();
+    }
+    indices.forEach(
+        i -> {
+          state[i] = model.next(state[i], streams[i]);
+          prices[i] = PriceModel.toCents(state[i]);
+        });
+  }
+}
@@ -0,0 +1,25 @@
+package edu.xxx.market;
+
+/**
+ * A response body rendered ahead of time, along with an ETag naming that particular version of it.
+ *
+ * <p>Engineering notes: the web page polls funds, prices, and holdings every second, but prices
+ * only change once per tick and funds and holdings only change when there's a trade. So rather than
+ * reformatting the same answer over and over, we render each answer once, whenever the underlying
+ * state changes, and publish the results through volatile fields. A poll then just grabs the latest
+ * rendered answer, and if the browser sends back an ETag saying it already has that version, we
+ * don't even need to send the body: a 304 (not modified) will do.
+ */
+final class Rendered {
+  // Part of every ETag, so a browser's cached versions from a previous run of the server won't
+  // accidentally match the version numbers of this one.
+  private static final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+  final String text;
+  final String etag;
+
+  Rendered(String text, String version) {
+    this.text = text;
+    this.etag = "\"" + epoch + "-" + version + "\"";
+  }
+}
@@ -0,0 +1,152 @@
+package edu.xxx.market;
+
+import static edu.xxx.market.MarketServer.asDollars;
+import static spark.Spark.get;
+
+import edu.xxx.web.Responses;
+import edu.xxx.web.Utils;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import java.util.function.Supplier;
+import spark.Request;
+import spark.Route;
+
+/**
+ * Admin endpoints for querying the {@link TradeStore}, each returning JSON (or CBOR, if asked):
+ *
+ * <pre>
+ * curl localhost:4567/admin/trades/volume/
+ * curl 'localhost:4567/admin/trades/vwap/?from=1700000000000&amp;to=1800000000000'
+ * curl 'localhost:4567/admin/trades/pnl/?n=20'
+ * curl 'localhost:4567/admin/trades/pnl/?account=alice'
+ * </pre>
+ *
+ * <p>The optional <code>from</code> and <code>to</code> parameters (milliseconds since the epoch,
+ * from inclusive, to exclusive) limit any query to the trades in that time range. Since a query can
+ * scan every trade ever made, these only answer requests from the same machine. In a cluster, each
+ * node only knows about the trades of the accounts it owns.
+ */
+final class TradeAnalytics {
+  private TradeAnalytics() {} // this class should never be instantiated
+
+  private static final int DEFAULT_ACCOUNTS = 10;
+  private static final int MAX_ACCOUNTS = 1000;
+
+  private static long getMillis(Request request, String name, long orElse) {
+    return Option.of(request.queryParams(name))
+        .flatMap(millis -> Try.of(() -> Long.parseLong(millis)).toOption())
+        .getOrElse(orElse);
+  }
+
+  private static long getFrom(Request request) {
+    return getMillis(request, "from", Long.MIN_VALUE);
+  }
+
+  private static long getTo(Request request) {
+    return getMillis(request, "to", Long.MAX_VALUE);
+  }
+
+  private static int getAccountCount(Request request) {
+    return Option.of(request.queryParams("n"))
+        .flatMap(n -> Try.of(() -> Integer.parseInt(n)).toOption())
+        .map(n -> Math.max(1, Math.min(n, MAX_ACCOUNTS)))
+        .getOrElse(DEFAULT_ACCOUNTS);
+  }
+
+  /** Wraps a query so it only runs for local requests, and never gets cached. */
+  private static Route localOnly(Route query) {
+    return (request, response) -> {
+      response.header("cache-control", "no-store");
+      if (!Utils.isLocalRequest(request)) {
+        response.status(403);
+        return Responses.encoded(
+            request,
+            response,
+            out -> out.beginObject().field("message", "local requests only").endObject());
+      }
+      return query.handle(request, response);
+    };
+  }
+
+  /**
+   * Installs the <code>/admin/trades/</code> endpoints into the Spark web server, querying the
+   * given store, with holdings valued at whatever prices the supplier gives.
+   */
+  static void install(TradeStore store, Supplier<int[]> prices) {
+    // Quantities bought and sold, and their total value, for each instrument.
+    get(
+        "/admin/trades/volume/",
+        localOnly(
+            (request, response) -> {
+              var volumes = store.volume(getFrom(request), getTo(request));
+              return Responses.encoded(
+                  request,
+                  response,
+                  out -> {
+                    out.beginArray();
+                    for (var volume : volumes) {
+                      out.beginObject()
+                          .field("instrument", volume.instrument)
+                          .field("trades", volume.trades)
+                          .field("bought", volume.bought)
+                          .field("sold", volume.sold)
+                          .field("notional", asDollars(volume.notionalCents))
+                          .field("notionalCents", volume.notionalCents)
+                          .endObject();
+                    }
+                    out.endArray();
+                  });
+            }));
+
+    // The volume-weighted average price of each instrument, or null if it hasn't traded.
+    get(
+        "/admin/trades/vwap/",
+        localOnly(
+            (request, response) -> {
+              var volumes = store.volume(getFrom(request), getTo(request));
+              return Responses.encoded(
+                  request,
+                  response,
+                  out -> {
+                    out.beginArray();
+                    for (var volume : volumes) {
+                      out.beginObject()
+                          .field("instrument", volume.instrument)
+                          // NaN, for no trades, comes out as null
+                          .field("vwapCents", volume.vwapCents().getOrElse(Double.NaN))
+                          .endObject();
+                    }
+                    out.endArray();
+                  });
+            }));
+
+    // Profit and loss, best first, with holdings valued at the current prices.
+    get(
+        "/admin/trades/pnl/",
+        localOnly(
+            (request, response) -> {
+              var results =
+                  store.profitAndLoss(
+                      Option.of(request.queryParams("account")),
+                      getAccountCount(request),
+                      getFrom(request),
+                      getTo(request),
+                      prices.get());
+              return Responses.encoded(
+                  request,
+                  response,
+                  out -> {
+                    out.beginArray();
+                    for (var result : results) {
+                      out.beginObject()
+                          .field("account", result.account)
+                          .field("trades", result.trades)
+                          .field("pnl", asDollars(result.cents))
+                          .field("cents", result.cents)
+                          .endObject();
+                    }
+                    out.endArray();
+                  });
+            }));
+  }
+}
@@ -0,0 +1,670 @@
+package edu.xxx.market;
+
+import edu.xxx.metrics.Counter;
+import edu.xxx.metrics.Histogram;
+import edu.xxx.metrics.Metrics;
+import edu.xxx.util.Log;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * An append-only record of every trade, kept on disk in a directory of memory-mapped files, with
+ * queries for trading volume, volume-weighted average prices (VWAP), and per-account profit and
+ * loss (P&amp;L).
+ *
+ * <p>Engineering notes: the store is <i>columnar</i>: rather than keeping each trade's fields
+ * together, each segment file holds a million trades as six arrays of primitives (timestamps,
+ * accounts, instruments, prices, quantities, and sides), one after the other. A query only reads
+ * the columns it needs, sequentially, which is about the best case there is for the CPU's caches
+ * and prefetchers, and there are no objects at all, so a scan over hundreds of millions of trades
+ * puts nothing on the heap and gives the garbage collector nothing to do. Accounts are stored as
+ * small integers, assigned in order of first appearance, with the names kept in a separate
+ * dictionary file.
+ *
+ * <p>The files are memory-mapped, so the operating system's page cache holds whatever fits in
+ * memory, and a query on recent trades doesn't touch the disk. Queries split the segments into
+ * chunks and scan them on the fork-join common pool, one accumulator per processor, merging the
+ * accumulators at the end.
+ *
+ * <p>Recording a trade mustn't hold up the trade, let alone fail it, so {@link #append} just puts
+ * the trade on a bounded queue, and one background thread does all the writing, including the
+ * occasional slow part: writing a new account's name to the dictionary, or mapping a new 25 MB
+ * segment file. If that thread ever falls so far behind that the queue fills up, or hits an I/O
+ * error (after which it gives up, and the store only answers queries), trades go unrecorded, and
+ * are counted in <code>trade_store_dropped_total</code>, but the trades themselves still happen.
+ *
+ * <p>Since there's only the one writer, no lock is needed to write, and each segment's row count
+ * is published through a volatile field after the row is written, so queries running concurrently
+ * see only complete rows. Timestamps never go backwards (we use the previous timestamp if the clock
+ * does), so a time-range query can skip whole segments without looking inside them. The row count
+ * is also kept in each file's header, so the store picks up where it left off after a restart;
+ * after a crash of the whole machine, rather than just the server, recent trades may be lost.
+ */
+final class TradeStore {
+  private static final String TAG = "TradeStore";
+
+  /** Trades per segment file. */
+  static final int SEGMENT_ROWS = 1 << 20;
+
+  // Rows per unit of work in a parallel scan.
+  private static final int CHUNK_ROWS = 1 << 16;
+
+  // Segment file layout: a header, then the columns, widest first so they all stay aligned.
+  private static final int MAGIC = 0x54524431; // "TRD1"
+  private static final int HEADER_BYTES = 64;
+  private static final int COUNT_OFFSET = 8;
+  private static final int ROW_BYTES = 8 + 4 + 4 + 4 + 4 + 1;
+
+  private static final String SEGMENT_SUFFIX = ".trades";
+  private static final String DICTIONARY_FILE = "accounts.dict";
+
+  // Trades waiting to be written; a few seconds' worth, at thousands of trades per second.
+  private static final int QUEUE_SIZE = 1 << 16;
+
+  /** One memory-mapped segment file. */
+  private static final class Segment {
+    final MappedByteBuffer file;
+    final LongBuffer timestamps; // milliseconds since the epoch
+    final IntBuffer accounts; // dictionary numbers
+    final IntBuffer instruments;
+    final IntBuffer prices; // cents
+    final IntBuffer quantities; // always positive; see sides
+    final ByteBuffer sides; // 1 for a buy, 0 for a sale
+
+    // Rows written so far; written only by the writer thread.
+    volatile int count;
+
+    Segment(MappedByteBuffer file) {
+      this.file = file;
+      file.order(ByteOrder.LITTLE_ENDIAN);
+      int timestampsAt = HEADER_BYTES;
+      int accountsAt = timestampsAt + 8 * SEGMENT_ROWS;
+      int instrumentsAt = accountsAt + 4 * SEGMENT_ROWS;
+      int pricesAt = instrumentsAt + 4 * SEGMENT_ROWS;
+      int quantitiesAt = pricesAt + 4 * SEGMENT_ROWS;
+      int sidesAt = quantitiesAt + 4 * SEGMENT_ROWS;
+      this.timestamps = column(timestampsAt, 8).asLongBuffer();
+      this.accounts = column(accountsAt, 4).asIntBuffer();
+      this.instruments = column(instrumentsAt, 4).asIntBuffer();
+      this.prices = column(pricesAt, 4).asIntBuffer();
+      this.quantities = column(quantitiesAt, 4).asIntBuffer();
+      this.sides = column(sidesAt, 1);
+      this.count = file.getInt(COUNT_OFFSET);
+    }
+
+    private ByteBuffer column(int offset, int width) {
+      return file.duplicate()
+          .position(offset)
+          .limit(offset + width * SEGMENT_ROWS)
+          .slice()
+          .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    long firstTimestamp() {
+      return timestamps.get(0);
+    }
+
+    long lastTimestamp(int rows) {
+      return timestamps.get(rows - 1);
+    }
+  }
+
+  /** A trade on its way from {@link #append} to the writer thread. */
+  private static final class Trade {
+    final String account;
+    final long millis;
+    final int instrument;
+    final boolean buy;
+    final int price;
+    final int quantity;
+
+    Trade(String account, long millis, int instrument, boolean buy, int price, int quantity) {
+      this.account = account;
+      this.millis = millis;
+      this.instrument = instrument;
+      this.buy = buy;
+      this.price = price;
+      this.quantity = quantity;
+    }
+  }
+
+  /** A range of rows in one segment: the unit of work for a parallel scan. */
+  private static final class Chunk {
+    final Segment segment;
+    final int start;
+    final int end;
+
+    Chunk(Segment segment, int start, int end) {
+      this.segment = segment;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /** Trading totals for one instrument. */
+  static final class Volume {
+    final int instrument;
+    long trades = 0;
+    long bought = 0;
+    long sold = 0;
+    long notionalCents = 0; // sum of price times quantity
+
+    Volume(int instrument) {
+      this.instrument = instrument;
+    }
+
+    /** The volume-weighted average price, in cents, if there were any trades. */
+    Option<Double> vwapCents() {
+      long quantity = bought + sold;
+      return quantity == 0 ? Option.none() : Option.some(notionalCents / (double) quantity);
+    }
+  }
+
+  /** One account's profit or loss: cash from its trades plus its net holdings at given prices. */
+  static final class ProfitAndLoss {
+    final String account;
+    final long trades;
+    final long cents;
+
+    ProfitAndLoss(String account, long trades, long cents) {
+      this.account = account;
+      this.trades = trades;
+      this.cents = cents;
+    }
+  }
+
+  private final Path directory;
+  private final int nInstruments;
+  private final FileChannel dictionaryFile;
+  private final Map<String, Integer> accountNumbers = new ConcurrentHashMap<>();
+  private final List<String> accountNames = new ArrayList<>(); // guarded by this
+  private volatile List<Segment> segments;
+  private long lastTimestamp = 0; // only touched by the writer thread
+
+  private final BlockingQueue<Trade> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+  private volatile boolean stopping = false;
+  private volatile boolean failed = false;
+
+  private final Counter appends =
+      Metrics.counter("trade_store_appends_total", "Trades recorded in the trade store.");
+  private final Counter dropped =
+      Metrics.counter(
+          "trade_store_dropped_total",
+          "Trades not recorded, because the trade store fell behind or failed.");
+
+  private TradeStore(Path directory, int nInstruments, FileChannel dictionaryFile)
+      throws IOException {
+    this.directory = directory;
+    this.nInstruments = nInstruments;
+    this.dictionaryFile = dictionaryFile;
+    readDictionary();
+
+    var loaded = new ArrayList<Segment>();
+    try (var files = Files.list(directory)) {
+      for (var file :
+          files
+              .filter(f -> f.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+              .sorted()
+              .collect(Collectors.toList())) {
+        loaded.add(new Segment(mapSegment(file)));
+      }
+    }
+    this.segments = List.copyOf(loaded);
+    if (!loaded.isEmpty()) {
+      var last = loaded.get(loaded.size() - 1);
+      if (last.count > 0) {
+        lastTimestamp = last.lastTimestamp(last.count);
+      }
+    }
+    Metrics.gauge("trade_store_rows", "Trades in the trade store.", this::size);
+    Metrics.gauge("trade_store_queued", "Trades waiting to be written.", queue::size);
+
+    var thread = new Thread(this::writeAll, "trade-store");
+    thread.setDaemon(true);
+    thread.start();
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  stopping = true;
+                  try {
+                    thread.join(TimeUnit.SECONDS.toMillis(5));
+                  } catch (InterruptedException ex) {
+                    // exiting anyway
+                  }
+                }));
+  }
+
+  /**
+   * Opens the trade store in the given directory, creating it if need be, with room for the given
+   * number of instruments in query results.
+   */
+  static Try<TradeStore> open(Path directory, int nInstruments) {
+    return Try.of(
+        () -> {
+          Files.createDirectories(directory);
+          var dictionary =
+              FileChannel.open(
+                  directory.resolve(DICTIONARY_FILE),
+                  StandardOpenOption.CREATE,
+                  StandardOpenOption.READ,
+                  StandardOpenOption.WRITE);
+          var store = new TradeStore(directory, nInstruments, dictionary);
+          Log.i(TAG, "Opened " + directory + " with " + store.size() + " trades");
+          return store;
+        });
+  }
+
+  /**
+   * Reads back the account names, in the order they were numbered. If the last name was only half
+   * written when the server stopped, it's cut off, and the next name goes where it was.
+   */
+  private void readDictionary() throws IOException {
+    var bytes = new byte[(int) dictionaryFile.size()];
+    var buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining() && dictionaryFile.read(buffer, buffer.position()) > 0) {
+      // keep reading
+    }
+    var in = new DataInputStream(new ByteArrayInputStream(bytes));
+    long good = 0;
+    try {
+      while (good < bytes.length) {
+        var name = in.readUTF();
+        accountNumbers.put(name, accountNames.size());
+        accountNames.add(name);
+        good = bytes.length - in.available();
+      }
+    } catch (EOFException ex) {
+      Log.e(TAG, "Dropping a partial account name at the end of the dictionary");
+    }
+    dictionaryFile.truncate(good);
+    dictionaryFile.position(good);
+  }
+
+  private static MappedByteBuffer mapSegment(Path file) throws IOException {
+    try (var channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      var buffer =
+          channel.map(
+              FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) ROW_BYTES * SEGMENT_ROWS);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer.getInt(0) == 0) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, SEGMENT_ROWS);
+      } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != SEGMENT_ROWS) {
+        throw new IOException(file + " isn't a trade segment with " + SEGMENT_ROWS + " rows");
+      }
+      return buffer; // the mapping stays valid after the channel is closed
+    }
+  }
+
+  /** The total number of trades recorded. */
+  long size() {
+    return segments.stream().mapToLong(segment -> segment.count).sum();
+  }
+
+  /**
+   * The dictionary number for an account, adding it to the dictionary if it's new. Only the writer
+   * thread calls this, and it only takes the lock to publish the new name, not to write it.
+   */
+  private int accountNumber(String account) throws IOException {
+    var number = accountNumbers.get(account);
+    if (number != null) {
+      return number;
+    }
+    var bytes = new ByteArrayOutputStream();
+    try (var out = new DataOutputStream(bytes)) {
+      out.writeUTF(account);
+    }
+    dictionaryFile.write(ByteBuffer.wrap(bytes.toByteArray()));
+    synchronized (this) {
+      accountNumbers.put(account, accountNames.size());
+      accountNames.add(account);
+      return accountNames.size() - 1;
+    }
+  }
+
+  /**
+   * Records one trade, with the current time. This never waits for the disk, and never fails:
+   * the trade goes on the queue for the writer thread, or if it can't, it's dropped and counted.
+   */
+  void append(String account, int instrument, boolean buy, int price, int quantity) {
+    var trade = new Trade(account, System.currentTimeMillis(), instrument, buy, price, quantity);
+    if (failed || !queue.offer(trade)) {
+      dropped.inc();
+    }
+  }
+
+  /** Takes trades off the queue and writes them, until the program exits or a write fails. */
+  private void writeAll() {
+    var batch = new ArrayDeque<Trade>();
+    try {
+      while (!stopping || !queue.isEmpty()) {
+        // Once there's a trade, take everything that's waiting, so that under load the writer
+        // wakes up once per batch of trades, rather than once per trade.
+        var first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch);
+        while (!batch.isEmpty()) {
+          write(batch.peek());
+          batch.remove();
+        }
+      }
+    } catch (IOException | RuntimeException ex) {
+      failed = true;
+      Log.e(TAG, "Stopped recording trades in " + directory, ex);
+      dropped.add(batch.size() + queue.size()); // what's left of this batch, and all that's waiting
+      queue.clear();
+    } catch (InterruptedException ex) {
+      Log.e(TAG, "Stopped recording trades in " + directory, ex);
+    }
+  }
+
+  private void write(Trade trade) throws IOException {
+    int accountNumber = accountNumber(trade.account);
+    var current = segments;
+    var segment = current.isEmpty() ? null : current.get(current.size() - 1);
+    if (segment == null || segment.count == SEGMENT_ROWS) {
+      var file = directory.resolve(String.format("%08d%s", current.size(), SEGMENT_SUFFIX));
+      segment = new Segment(mapSegment(file));
+      segments = Stream.concat(current.stream(), Stream.of(segment)).collect(Collectors.toList());
+    }
+
+    lastTimestamp = Math.max(lastTimestamp, trade.millis);
+    int row = segment.count;
+    segment.timestamps.put(row, lastTimestamp);
+    segment.accounts.put(row, accountNumber);
+    segment.instruments.put(row, trade.instrument);
+    segment.prices.put(row, trade.price);
+    segment.quantities.put(row, trade.quantity);
+    segment.sides.put(row, (byte) (trade.buy ? 1 : 0));
+    segment.file.putInt(COUNT_OFFSET, row + 1);
+    segment.count = row + 1; // publishes the row to queries
+    appends.inc();
+  }
+
+  /** The rows with timestamps in [from, to), split into chunks, skipping segments outside that. */
+  private List<Chunk> chunks(long fromMillis, long toMillis) {
+    var result = new ArrayList<Chunk>();
+    for (var segment : segments) {
+      int rows = segment.count;
+      if (rows == 0
+          || segment.firstTimestamp() >= toMillis
+          || segment.lastTimestamp(rows) < fromMillis) {
+        continue;
+      }
+      for (int start = 0; start < rows; start += CHUNK_ROWS) {
+        result.add(new Chunk(segment, start, Math.min(rows, start + CHUNK_ROWS)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Scans the chunks in parallel, with one task (and one accumulator) per processor, each taking
+   * every n-th chunk, so the tasks get about the same amount of work and the accumulators aren't
+   * multiplied by the number of chunks.
+   */
+  private static <A> A scan(
+      String query,
+      List<Chunk> chunks,
+      Supplier<A> accumulator,
+      BiConsumer<A, Chunk> add,
+      BinaryOperator<A> merge) {
+    long start = System.nanoTime();
+    int tasks = Math.max(1, Math.min(chunks.size(), Runtime.getRuntime().availableProcessors()));
+    var result =
+        IntStream.range(0, tasks)
+            .parallel()
+            .mapToObj(
+                task -> {
+                  var totals = accumulator.get();
+                  for (int i = task; i < chunks.size(); i += tasks) {
+                    add.accept(totals, chunks.get(i));
+                  }
+                  return totals;
+                })
+            .reduce(merge)
+            .orElseGet(accumulator);
+    recordLatency(query, start);
+    return result;
+  }
+
+  private static void recordLatency(String query, long startNanos) {
+    Histogram latency =
+        Metrics.histogram(
+            "trade_store_query_seconds", "Time to run a trade store query.", "query", query);
+    latency.record(System.nanoTime() - startNanos);
+  }
+
+  /** Volume and notional totals for each instrument, over trades in [from, to). */
+  List<Volume> volume(long fromMillis, long toMillis) {
+    return List.of(
+        scan(
+            "volume",
+            chunks(fromMillis, toMillis),
+            () -> IntStream.range(0, nInstruments).mapToObj(Volume::new).toArray(Volume[]::new),
+            (totals, chunk) -> {
+              var s = chunk.segment;
+              for (int row = chunk.start; row < chunk.end; row++) {
+                long time = s.timestamps.get(row);
+                int instrument = s.instruments.get(row);
+                if (time < fromMillis || time >= toMillis || instrument >= totals.length) {
+                  continue;
+                }
+                var volume = totals[instrument];
+                int quantity = s.quantities.get(row);
+                volume.trades++;
+                if (s.sides.get(row) != 0) {
+                  volume.bought += quantity;
+                } else {
+                  volume.sold += quantity;
+                }
+                volume.notionalCents += (long) quantity * s.prices.get(row);
+              }
+            },
+            (a, b) -> {
+              for (int i = 0; i < a.length; i++) {
+                a[i].trades += b[i].trades;
+                a[i].bought += b[i].bought;
+                a[i].sold += b[i].sold;
+                a[i].notionalCents += b[i].notionalCents;
+              }
+              return a;
+            }));
+  }
+
+  /**
+   * Per-account totals while scanning: trades, cash (negative for money spent), and net holdings
+   * of each instrument. A ledger only keeps the accounts whose dictionary numbers are <code>part
+   * </code> more than a multiple of <code>parts</code>, each at index <code>number / parts</code>,
+   * so that when a query splits the accounts among its tasks, their ledgers together take no more
+   * memory than a single ledger for every account, however many tasks there are.
+   */
+  private final class Ledger {
+    final int part;
+    final int parts;
+    final long[] trades;
+    final long[] cash;
+    final long[] holdings; // slot * nInstruments + instrument
+
+    /** A ledger for the accounts numbered part, part + parts, part + 2 * parts, and so on. */
+    Ledger(int part, int parts, int nAccounts) {
+      int size = Math.max(0, (nAccounts - part + parts - 1) / parts);
+      this.part = part;
+      this.parts = parts;
+      this.trades = new long[size];
+      this.cash = new long[size];
+      this.holdings = new long[size * nInstruments];
+    }
+
+    void add(Chunk chunk, long fromMillis, long toMillis) {
+      var s = chunk.segment;
+      for (int row = chunk.start; row < chunk.end; row++) {
+        int account = s.accounts.get(row);
+        if (account % parts != part) {
+          continue; // somebody else's
+        }
+        int slot = account / parts;
+        long time = s.timestamps.get(row);
+        int instrument = s.instruments.get(row);
+        if (slot >= trades.length
+            || time < fromMillis
+            || time >= toMillis
+            || instrument >= nInstruments) {
+          continue; // an account newer than this query, or a trade it isn't asking about
+        }
+        long quantity = s.sides.get(row) != 0 ? s.quantities.get(row) : -s.quantities.get(row);
+        trades[slot]++;
+        cash[slot] -= quantity * s.prices.get(row);
+        holdings[slot * nInstruments + instrument] += quantity;
+      }
+    }
+
+    Ledger merge(Ledger other) {
+      for (int i = 0; i < trades.length; i++) {
+        trades[i] += other.trades[i];
+        cash[i] += other.cash[i];
+      }
+      for (int i = 0; i < holdings.length; i++) {
+        holdings[i] += other.holdings[i];
+      }
+      return this;
+    }
+
+    long profitAndLoss(int slot, int[] prices) {
+      long result = cash[slot];
+      for (int i = 0; i < nInstruments; i++) {
+        result += holdings[slot * nInstruments + i] * prices[i];
+      }
+      return result;
+    }
+
+    /** The <code>n</code> accounts here that made the most, best first. */
+    List<Ranked> best(int n, int[] prices) {
+      // A heap of the best so far, worst on top, so there's never more than n of them.
+      var heap = new PriorityQueue<Ranked>(RANKING.reversed());
+      for (int slot = 0; slot < trades.length; slot++) {
+        if (trades[slot] > 0) {
+          heap.add(new Ranked(slot * parts + part, trades[slot], profitAndLoss(slot, prices)));
+          if (heap.size() > n) {
+            heap.poll();
+          }
+        }
+      }
+      var result = new ArrayList<>(heap);
+      result.sort(RANKING);
+      return result;
+    }
+  }
+
+  /** An account's P&amp;L, by dictionary number, before we look up its name. */
+  private static final class Ranked {
+    final int account;
+    final long trades;
+    final long cents;
+
+    Ranked(int account, long trades, long cents) {
+      this.account = account;
+      this.trades = trades;
+      this.cents = cents;
+    }
+  }
+
+  // Best first: most money made, and among equals, the account that traded first.
+  private static final Comparator<Ranked> RANKING =
+      Comparator.<Ranked>comparingLong(r -> -r.cents).thenComparingInt(r -> r.account);
+
+  /**
+   * Profit and loss from trades in [from, to), with whatever was bought and not sold valued at the
+   * given prices (and whatever was sold and not bought subtracted at them). That's for every
+   * account, best first, keeping the top <code>n</code>, or if <code>account</code> is given, just
+   * that one account (which is empty if it's never traded).
+   */
+  List<ProfitAndLoss> profitAndLoss(
+      Option<String> account, int n, long fromMillis, long toMillis, int[] prices) {
+    var chunks = chunks(fromMillis, toMillis);
+    if (account.isDefined()) {
+      var number = accountNumbers.get(account.get());
+      if (number == null) {
+        return List.of();
+      }
+      // Just the one account, in a ledger of one, so the chunks can be split up as usual.
+      var ledger =
+          scan(
+              "pnl_account",
+              chunks,
+              () -> new Ledger(number, number + 1, number + 1),
+              (totals, chunk) -> totals.add(chunk, fromMillis, toMillis),
+              Ledger::merge);
+      return List.of(
+          new ProfitAndLoss(account.get(), ledger.trades[0], ledger.profitAndLoss(0, prices)));
+    }
+
+    // Every account: rather than split up the chunks, which would need a ledger for every account
+    // in every task, split up the accounts, so each task reads every chunk but only keeps the
+    // totals for its own share of the accounts, and then only its top n.
+    long start = System.nanoTime();
+    int nAccounts;
+    synchronized (this) {
+      nAccounts = accountNames.size();
+    }
+    int tasks = Math.max(1, Math.min(nAccounts, Runtime.getRuntime().availableProcessors()));
+    var best =
+        IntStream.range(0, tasks)
+            .parallel()
+            .mapToObj(
+                part -> {
+                  var ledger = new Ledger(part, tasks, nAccounts);
+                  for (var chunk : chunks) {
+                    ledger.add(chunk, fromMillis, toMillis);
+                  }
+                  return ledger.best(n, prices);
+                })
+            .flatMap(List::stream)
+            .sorted(RANKING)
+            .limit(n)
+            .collect(Collectors.toList());
+    recordLatency("pnl", start);
+    synchronized (this) {
+      return best.stream()
+          .map(r -> new ProfitAndLoss(accountNames.get(r.account), r.trades, r.cents))
+          .collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package edu.xxx.market;
+
+import edu.xxx.metrics.Counter;
+import edu.xxx.metrics.Histogram;
+import edu.xxx.metrics.Metrics;
+import io.vavr.control.Option;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Keeps every account's portfolio value (funds plus holdings at current prices) up to date, along
+ * with a leaderboard of the most valuable accounts.
+ *
+ * <p>Engineering notes: recomputing every account's value on every price tick would cost
+ * (accounts &times; instruments), even though most accounts don't hold most instruments, and a
+ * price tick only changes the value of accounts that hold something whose price changed. So we
+ * keep, for each instrument, an index of the accounts holding it, and on each tick we only visit
+ * those, adding (quantity &times; price change) to each one's value. A trade changes its account's
+ * value by (quantity &times; (current price - trade price)), which is usually zero, but not if the
+ * trade's price was read just before a tick.
+ *
+ * <p>The accounts are split into shards, each with its own lock, holder indexes, and ranking (a
+ * {@link TreeSet} ordered by value), so a tick can update all the shards in parallel, on the
+ * fork-join common pool, and trades only ever wait for the one shard they're in. Moving an account
+ * within its shard's ranking when its value changes takes O(log n), so there's never a full
+ * re-sort; the overall top N is merged from the top N of each shard.
+ *
+ * <p>Each shard also remembers the prices it last applied, rather than sharing one global copy,
+ * so a trade that lands in the middle of a tick sees prices consistent with its shard's values.
+ * Trade and tick updates commute, so it doesn't matter in which order they arrive.
+ */
+final class Valuation {
+  /** The most entries a leaderboard can have. */
+  static final int MAX_LEADERS = 100;
+
+  /** One account's position, as far as valuation is concerned; guarded by its shard's lock. */
+  private static final class Position {
+    final String id;
+    final Valuation.Shard shard;
+    final int[] quantities;
+    long valueCents;
+
+    // scratch space for a tick in progress
+    long pendingCents = 0;
+    boolean touched = false;
+
+    Position(String id, Valuation.Shard shard, int nInstruments) {
+      this.id = id;
+      this.shard = shard;
+      this.quantities = new int[nInstruments];
+      this.valueCents = Account.INITIAL_FUNDS;
+    }
+  }
+
+  /** One account on the leaderboard. */
+  static final class Leader {
+    final String id;
+    final long valueCents;
+
+    Leader(String id, long valueCents) {
+      this.id = id;
+      this.valueCents = valueCents;
+    }
+  }
+
+  /** Most valuable first, and by name for accounts worth the same, so the order is stable. */
+  private static final Comparator<Position> RANKING =
+      Comparator.<Position>comparingLong(p -> -p.valueCents).thenComparing(p -> p.id);
+
+  private final class Shard {
+    final int[] marks = Arrays.copyOf(initialPrices, initialPrices.length);
+    final List<Set<Position>> holders = new ArrayList<>();
+    final TreeSet<Position> ranking = new TreeSet<>(RANKING);
+
+    Shard() {
+      for (int i = 0; i < marks.length; i++) {
+        holders.add(new HashSet<>());
+      }
+    }
+
+    synchronized void add(Position position) {
+      ranking.add(position);
+    }
+
+    synchronized void trade(Position position, int index, int quantity, int price) {
+      ranking.remove(position);
+      position.valueCents += (long) quantity * (marks[index] - price);
+      position.quantities[index] += quantity;
+      ranking.add(position);
+
+      if (position.quantities[index] != 0) {
+        holders.get(index).add(position);
+      } else {
+        holders.get(index).remove(position);
+      }
+    }
+
+    /** Applies new prices, revaluing only the positions that hold something that changed. */
+    synchronized void reprice(int[] prices) {
+      var touched = new ArrayList<Position>();
+      for (int i = 0; i < prices.length; i++) {
+        int delta = prices[i] - marks[i];
+        if (delta == 0) {
+          continue;
+        }
+        for (var position : holders.get(i)) {
+          if (!position.touched) {
+            position.touched = true;
+            touched.add(position);
+          }
+          position.pendingCents += (long) position.quantities[i] * delta;
+        }
+        marks[i] = prices[i];
+      }
+
+      for (var position : touched) {
+        if (position.pendingCents != 0) {
+          ranking.remove(position);
+          position.valueCents += position.pendingCents;
+          ranking.add(position);
+        }
+        position.pendingCents = 0;
+        position.touched = false;
+      }
+      revalued.add(touched.size());
+    }
+
+    synchronized List<Leader> top(int n) {
+      var result = new ArrayList<Leader>(n);
+      for (var position : ranking) {
+        if (result.size() >= n) {
+          break;
+        }
+        result.add(new Leader(position.id, position.valueCents));
+      }
+      return result;
+    }
+
+    synchronized long value(Position position) {
+      return position.valueCents;
+    }
+  }
+
+  private final int[] initialPrices;
+  private final Shard[] shards;
+  private final Map<String, Position> positions = new ConcurrentHashMap<>();
+  private final AtomicInteger registered = new AtomicInteger();
+  private final Histogram repriceLatency =
+      Metrics.histogram("valuation_reprice_seconds", "Time to revalue accounts after a tick.");
+  private final Counter revalued =
+      Metrics.counter("valuation_revalued_total", "Accounts revalued because of a price change.");
+
+  /**
+   * Makes a valuation engine with the given number of shards, starting from the given prices.
+   * There's no point in having many more shards than processors, but having a few times as many
+   * evens out the work.
+   */
+  Valuation(int nShards, int[] prices) {
+    this.initialPrices = Arrays.copyOf(prices, prices.length);
+    this.shards = IntStream.range(0, nShards).mapToObj(i -> new Shard()).toArray(Shard[]::new);
+    Metrics.gauge("valuation_accounts", "Accounts being valued.", positions::size);
+  }
+
+  /** Starts valuing a brand-new account, with its initial funds and no holdings. */
+  void register(String id) {
+    positions.computeIfAbsent(
+        id,
+        key -> {
+          // Deal accounts out round-robin, so the shards stay evenly balanced.
+          var shard = shards[Math.floorMod(registered.getAndIncrement(), shards.length)];
+          var position = new Position(key, shard, initialPrices.length);
+          shard.add(position);
+          return position;
+        });
+  }
+
+  /**
+   * Records a trade: <code>quantity</code> of the given instrument (negative for a sale) at the
+   * given price. The account must already be {@link #register registered}.
+   */
+  void trade(String id, int index, int quantity, int price) {
+    var position = positions.get(id);
+    position.shard.trade(position, index, quantity, price);
+  }
+
+  /** Revalues every account holding anything whose price has changed, one shard per task. */
+  void reprice(int[] prices) {
+    long start = System.nanoTime();
+    Arrays.stream(shards).parallel().forEach(shard -> shard.reprice(prices));
+    repriceLatency.record(System.nanoTime() - start);
+  }
+
+  /** An account's current value, in cents, if we know the account. */
+  Option<Long> value(String id) {
+    return Option.of(positions.get(id)).map(position -> position.shard.value(position));
+  }
+
+  /** The <code>n</code> most valuable accounts (at most {@link #MAX_LEADERS}), best first. */
+  List<Leader> leaders(int n) {
+    return merge(Arrays.stream(shards).map(shard -> shard.top(n)), n);
+  }
+
+  /** Merges several best-first lists of leaders into one, keeping the best <code>n</code>. */
+  static List<Leader> merge(Stream<List<Leader>> lists, int n) {
+    return lists
+        .flatMap(List::stream)
+        .sorted(
+            Comparator.<Leader>comparingLong(leader -> -leader.valueCents)
+                .thenComparing(leader -> leader.id))
+        .limit(n)
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,33 @@
+package edu.xxx.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count of something, like requests served or trades rejected. This is
+ * a thin wrapper around {@link LongAdder}, which spreads concurrent increments across several
+ * cells rather than having every thread fight over a single memory location, so it stays cheap even
+ * when every request handler in the web server is bumping the same counter.
+ *
+ * <p>You normally get one of these from {@link Metrics#counter(String, String, String...)} and then
+ * hang onto it, so the registry lookup happens once and each increment is just an add.
+ */
+public final class Counter {
+  private final LongAdder adder = new LongAdder();
+
+  Counter() {} // use Metrics.counter() to get one of these
+
+  /** Adds one to the count. */
+  public void inc() {
+    adder.increment();
+  }
+
+  /** Adds the given (non-negative) amount to the count. */
+  public void add(long amount) {
+    adder.add(amount);
+  }
+
+  /** Fetches the current count. Concurrent updates may or may not be reflected in the result. */
+  public long get() {
+    return adder.sum();
+  }
+}
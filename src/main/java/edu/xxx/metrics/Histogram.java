@@ -0,0 +1,107 @@
+package edu.xxx.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram, in the spirit of <a
+ * href="http://hdrhistogram.org/">HdrHistogram</a>. Values are recorded in nanoseconds and reported
+ * in seconds.
+ *
+ * <p>Engineering notes: we want percentiles (median, p99, and so forth) without keeping every
+ * sample around, and we want recording to be a handful of instructions with no locking. The trick
+ * is to use log-linear buckets. Every power of two gets {@value #SUB_BUCKETS} equal-width
+ * sub-buckets, so any recorded value lands in a bucket whose width is at most 1/{@value
+ * #SUB_BUCKETS} of the value itself. That's a relative error of 12.5% or better, across a range
+ * from one nanosecond up to centuries, in fewer than 500 counters. Finding the bucket is a {@link
+ * Long#numberOfLeadingZeros(long)}, a shift, and a mask; recording is then a single atomic
+ * increment.
+ */
+public final class Histogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  Histogram() {} // use Metrics.histogram() to get one of these
+
+  /** Which bucket does the given (non-negative) value belong in? */
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(value, 0);
+    }
+    int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /** The largest value that lands in the given bucket; the inverse of {@link #bucketIndex}. */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index >>> SUB_BUCKET_BITS) - 1;
+    long bound = ((long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1)) + 1) << shift) - 1;
+    return bound < 0 ? Long.MAX_VALUE : bound;
+  }
+
+  /** Records a single observation, in nanoseconds. Negative values are treated as zero. */
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    counts.getAndIncrement(bucketIndex(value));
+    count.increment();
+    sum.add(value);
+
+    // Only touch the shared maximum when we might actually change it, which is rare.
+    long currentMax = max.get();
+    while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  /** Number of observations recorded so far. */
+  public long count() {
+    return count.sum();
+  }
+
+  /** Sum of all observations recorded so far, in nanoseconds. */
+  public long sumNanos() {
+    return sum.sum();
+  }
+
+  /** Largest observation recorded so far, in nanoseconds. */
+  public long maxNanos() {
+    return max.get();
+  }
+
+  /**
+   * Estimates the given quantile (e.g., 0.99 for the 99th percentile), in nanoseconds. The answer
+   * is the upper bound of the bucket holding that rank, so it never understates the true value by
+   * more than the bucket width. Returns zero if nothing has been recorded.
+   */
+  public long quantileNanos(double quantile) {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+}
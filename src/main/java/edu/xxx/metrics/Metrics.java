@@ -0,0 +1,160 @@
+package edu.xxx.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A process-wide registry of {@link Counter}, {@link Histogram}, and gauge metrics, which can
+ * render everything it knows in the <a
+ * href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus text format</a>.
+ *
+ * <p>Every metric has a name (like <code>http_requests_total</code>), a help string, and optionally
+ * some labels, given as alternating key and value strings:
+ *
+ * <pre>
+ * var rejected = Metrics.counter("market_trades_total", "Trades", "outcome", "false");
+ * rejected.inc();
+ * </pre>
+ *
+ * <p>Asking twice for the same name and labels gives you back the same object, so it's fine to call
+ * these from wherever is convenient, but on hot paths you should look a metric up once and keep it
+ * in a field, since the lookup builds strings and probes a map.
+ */
+public final class Metrics {
+  private Metrics() {} // this class should never be instantiated
+
+  private static final String COUNTER = "counter";
+  private static final String GAUGE = "gauge";
+  private static final String SUMMARY = "summary";
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final double SECONDS_PER_NANO = 1e-9;
+
+  /** All the metrics with the same name, differing only in their labels. */
+  private static final class Family {
+    final String help;
+    final String type;
+    final Map<String, Object> children = new ConcurrentSkipListMap<>();
+
+    Family(String help, String type) {
+      this.help = help;
+      this.type = type;
+    }
+  }
+
+  // Sorted maps, so the rendered output comes out in a stable order.
+  private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+  /**
+   * Fetches (creating if necessary) the counter with the given name and labels.
+   *
+   * @param name Prometheus metric name, conventionally ending in <code>_total</code>
+   * @param help One-line description of what's being counted
+   * @param labels Alternating label names and values
+   */
+  public static Counter counter(String name, String help, String... labels) {
+    return (Counter) lookup(name, help, COUNTER, labels, Counter::new);
+  }
+
+  /**
+   * Fetches (creating if necessary) the latency histogram with the given name and labels. These
+   * are rendered as Prometheus summaries, with a handful of quantiles, in seconds.
+   *
+   * @param name Prometheus metric name, conventionally ending in <code>_seconds</code>
+   * @param help One-line description of what's being measured
+   * @param labels Alternating label names and values
+   */
+  public static Histogram histogram(String name, String help, String... labels) {
+    return (Histogram) lookup(name, help, SUMMARY, labels, Histogram::new);
+  }
+
+  /**
+   * Registers a gauge: a value that can go up and down, like the number of requests in flight,
+   * which is read from the given function whenever the metrics are rendered. Registering a second
+   * gauge with the same name and labels replaces the first.
+   *
+   * @param name Prometheus metric name
+   * @param help One-line description of what's being measured
+   * @param value Function that reads the current value
+   * @param labels Alternating label names and values
+   */
+  public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+    lookup(name, help, GAUGE, labels, () -> value);
+    families.get(name).children.put(labelString(labels), value);
+  }
+
+  private static Object lookup(
+      String name, String help, String type, String[] labels, Supplier<Object> maker) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("labels must be key/value pairs: " + name);
+    }
+    var family = families.computeIfAbsent(name, n -> new Family(help, type));
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(
+          "metric " + name + " is a " + family.type + ", not a " + type);
+    }
+    return family.children.computeIfAbsent(labelString(labels), l -> maker.get());
+  }
+
+  /** Converts alternating keys and values into Prometheus label syntax, like <code>a="1"</code>. */
+  private static String labelString(String[] labels) {
+    var sb = new StringBuilder();
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(labels[i]).append("=\"").append(escapeLabel(labels[i + 1])).append('"');
+    }
+    return sb.toString();
+  }
+
+  private static String escapeLabel(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /** Renders every registered metric in the Prometheus text exposition format. */
+  public static String renderPrometheus() {
+    var sb = new StringBuilder(4096);
+    families.forEach(
+        (name, family) -> {
+          sb.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+          sb.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+          family.children.forEach(
+              (labels, metric) -> {
+                if (metric instanceof Counter) {
+                  sample(sb, name, labels, "", Long.toString(((Counter) metric).get()));
+                } else if (metric instanceof DoubleSupplier) {
+                  var value = ((DoubleSupplier) metric).getAsDouble();
+                  sample(sb, name, labels, "", Double.toString(value));
+                } else {
+                  renderSummary(sb, name, labels, (Histogram) metric);
+                }
+              });
+        });
+    return sb.toString();
+  }
+
+  private static void renderSummary(StringBuilder sb, String name, String labels, Histogram h) {
+    for (double q : QUANTILES) {
+      var quantileLabel = "quantile=\"" + q + "\"";
+      sample(
+          sb,
+          name,
+          labels.isEmpty() ? quantileLabel : labels + "," + quantileLabel,
+          "",
+          Double.toString(h.quantileNanos(q) * SECONDS_PER_NANO));
+    }
+    sample(sb, name, labels, "_sum", Double.toString(h.sumNanos() * SECONDS_PER_NANO));
+    sample(sb, name, labels, "_count", Long.toString(h.count()));
+  }
+
+  private static void sample(
+      StringBuilder sb, String name, String labels, String suffix, String value) {
+    sb.append(name).append(suffix);
+    if (!labels.isEmpty()) {
+      sb.append('{').append(labels).append('}');
+    }
+    sb.append(' ').append(value).append('\n');
+  }
+}
@@ -0,0 +1,92 @@
+package edu.xxx.script;
+
+import static edu.xxx.vavr.Tries.tryOfNullable;
+
+import io.vavr.Lazy;
+import io.vavr.control.Try;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Source;
+
+/**
+ * A {@link ScriptBackend} using <a href="https://www.graalvm.org/javascript/">GraalJS</a>, through
+ * the GraalVM polyglot API. This works on any JDK from 11 on, and JavaScript gets full access to
+ * Java classes, as with Nashorn (e.g., <code>Java.type("java.lang.Math").max(3, 4)</code>).
+ *
+ * <p>Engineering notes: every session gets its own {@link Context}, which holds its global
+ * variables, but all the contexts share a single {@link Engine}, and we hand them the same {@link
+ * Source} objects for the same script text. That way, a script that's been parsed (and, once it's
+ * run enough, compiled to machine code) in one context doesn't have to be parsed or compiled again
+ * in the next one, or when it's run again in the same one. The compiling part needs the Graal
+ * compiler, which GraalVM has built in; on other JDKs, GraalJS still works, but only interprets,
+ * which is slower than Nashorn for heavy scripts. (See the {@link ScriptBenchmark}.)
+ *
+ * <p>The engine keeps each parse for as long as its Source object is alive, and our cache of them
+ * is keyed by the whole script text, so it's bounded by the total size of the scripts in it, not
+ * the number, and a script too big to be worth keeping (somebody pasting in a library, say) isn't
+ * cached at all. That's also the kind of script that's least likely to be sent twice.
+ */
+public final class GraalJsBackend implements ScriptBackend {
+  private static final int MAX_CACHED_CHARS = 1 << 20;
+  private static final int MAX_CACHED_SCRIPT_CHARS = 1 << 14;
+
+  // Created on first use, since it takes a while and plenty of programs never need it.
+  private static final Lazy<Engine> sharedEngine =
+      Lazy.of(() -> Engine.newBuilder().option("engine.WarnInterpreterOnly", "false").build());
+
+  // Script text to Source, least recently used first, and the total length of the scripts in it;
+  // both only touched while synchronized on the map.
+  private static final Map<String, Source> sources = new LinkedHashMap<>(16, 0.75f, true);
+  private static long cachedChars = 0;
+
+  private final Context context;
+
+  /** Makes a new GraalJS session, sharing parsed and compiled code with every other session. */
+  public GraalJsBackend() {
+    context =
+        Context.newBuilder("js")
+            .engine(sharedEngine.get())
+            .allowHostAccess(HostAccess.ALL)
+            .allowHostClassLookup(className -> true)
+            .build();
+  }
+
+  /** The one Source object for the given script text, so the engine can reuse its parse. */
+  private static Source source(String script) {
+    if (script.length() > MAX_CACHED_SCRIPT_CHARS) {
+      return Source.newBuilder("js", script, "repl").cached(false).buildLiteral();
+    }
+    synchronized (sources) {
+      var source = sources.get(script);
+      if (source == null) {
+        source = Source.newBuilder("js", script, "repl").cached(true).buildLiteral();
+        sources.put(script, source);
+        cachedChars += script.length();
+        // Evict least recently used first; never the new one, since it fits on its own.
+        for (var eldest = sources.keySet().iterator(); cachedChars > MAX_CACHED_CHARS; ) {
+          cachedChars -= eldest.next().length();
+          eldest.remove();
+        }
+      }
+      return source;
+    }
+  }
+
+  @Override
+  public String name() {
+    return GRAALJS;
+  }
+
+  @Override
+  public synchronized Try<String> eval(String script) {
+    // A Context may only be used by one thread at a time, hence the synchronized.
+    return tryOfNullable(
+        () -> {
+          var result = context.eval(source(script));
+          return result.isNull() ? null : result.toString();
+        });
+  }
+}
@@ -0,0 +1,38 @@
+package edu.xxx.script;
+
+import static edu.xxx.vavr.Tries.tryOfNullable;
+
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+/**
+ * A {@link ScriptBackend} using Nashorn, the JavaScript engine built into Java 8 through 14. It
+ * starts up quickly, but it's deprecated, and gone entirely as of Java 15.
+ */
+public final class NashornBackend implements ScriptBackend {
+  private final ScriptEngine engine;
+
+  /**
+   * Makes a new Nashorn session.
+   *
+   * @throws IllegalStateException if this JDK doesn't have Nashorn
+   */
+  public NashornBackend() {
+    engine =
+        Option.of(new ScriptEngineManager().getEngineByName("nashorn"))
+            .getOrElseThrow(
+                () -> new IllegalStateException("Nashorn was removed from the JDK in Java 15"));
+  }
+
+  @Override
+  public String name() {
+    return NASHORN;
+  }
+
+  @Override
+  public synchronized Try<String> eval(String script) {
+    return tryOfNullable(() -> engine.eval(script)).map(Object::toString);
+  }
+}
@@ -0,0 +1,69 @@
+package edu.xxx.script;
+
+import io.vavr.control.Try;
+import java.util.Locale;
+
+/**
+ * A JavaScript interpreter that can evaluate one script after another, remembering any variables
+ * and functions defined along the way, as the web REPL needs. Each backend object is one such
+ * session, and should be used by one thread at a time (the implementations here are synchronized,
+ * so sharing one is safe, just not concurrent).
+ *
+ * <p>We have two implementations: {@link NashornBackend}, the JavaScript engine that used to come
+ * with Java (through Java 14), and {@link GraalJsBackend}, which works on any modern JDK and, given
+ * the Graal compiler (as on GraalVM), is much faster on long-running scripts. GraalJS is a large
+ * library that only the programs using scripts need, so it's only on their class paths (see the
+ * <code>graalJs</code> configuration in build.gradle); anywhere else, it's simply unavailable.
+ */
+public interface ScriptBackend {
+  /** The name of the {@link NashornBackend}. */
+  String NASHORN = "nashorn";
+
+  /** The name of the {@link GraalJsBackend}. */
+  String GRAALJS = "graaljs";
+
+  /**
+   * A name understood by {@link #create(String)}, meaning Nashorn if this JDK still has it (to keep
+   * existing scripts working exactly as before), and GraalJS otherwise.
+   */
+  String AUTO = "auto";
+
+  /** This backend's name, as understood by {@link #create(String)}. */
+  String name();
+
+  /**
+   * Evaluates a script, returning the result converted to a string. If the script fails (syntax
+   * errors, exceptions, and so forth), the result is a failure with an exception describing what
+   * went wrong. If the script evaluates to <code>null</code> or <code>undefined</code>, the result
+   * is a failure with a {@link NullPointerException}, just like {@link
+   * edu.xxx.vavr.Tries#tryOfNullable}.
+   */
+  Try<String> eval(String script);
+
+  /**
+   * Makes a new backend session with the given name: {@link #NASHORN}, {@link #GRAALJS}, or {@link
+   * #AUTO}. The result is a failure if the name is unknown or the backend isn't available here.
+   */
+  static Try<ScriptBackend> create(String name) {
+    switch (name.toLowerCase(Locale.ROOT)) {
+      case NASHORN:
+        return Try.of(NashornBackend::new);
+      case GRAALJS:
+        return createGraalJs();
+      case AUTO:
+        return Try.<ScriptBackend>of(NashornBackend::new).orElse(ScriptBackend::createGraalJs);
+      default:
+        return Try.failure(new IllegalArgumentException("unknown script backend: " + name));
+    }
+  }
+
+  private static Try<ScriptBackend> createGraalJs() {
+    // Without GraalJS on the class path, even loading GraalJsBackend fails, with a LinkageError,
+    // which Try deliberately doesn't catch, so we have to check for it first.
+    if (Try.of(() -> Class.forName("org.graalvm.polyglot.Context")).isFailure()) {
+      return Try.failure(
+          new IllegalStateException("GraalJS isn't on the class path; see build.gradle"));
+    }
+    return Try.of(GraalJsBackend::new);
+  }
+}
@@ -0,0 +1,149 @@
+package edu.xxx.script;
+
+import com.beust.jcommander.Parameter;
+import edu.xxx.metrics.Histogram;
+import edu.xxx.metrics.Metrics;
+import edu.xxx.util.CommandLine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the {@link ScriptBackend}s on a few typical REPL workloads, from tiny one-liners (where
+ * parsing and call overhead dominate) to loops heavy enough for a JIT compiler to matter. Each
+ * thread gets its own backend session, just as separate REPLs would, and we print the throughput
+ * and latency percentiles for each backend and workload after a warm-up period:
+ *
+ * <pre>
+ * ./gradlew runScriptBenchmark --args='--threads 4 --seconds 20'
+ * </pre>
+ *
+ * <p>Remember that GraalJS only compiles scripts to machine code when the Graal compiler is
+ * available, as on GraalVM; on a stock JDK it's interpreting, and the numbers will show it.
+ */
+public class ScriptBenchmark {
+  /** Command-line options for the benchmark. */
+  static class Options {
+    @Parameter(names = "--backend", description = "Backends to compare; give more than one")
+    List<String> backends = new ArrayList<>(List.of(ScriptBackend.NASHORN, ScriptBackend.GRAALJS));
+
+    @Parameter(names = "--threads", description = "Threads evaluating scripts at once")
+    int threads = 1;
+
+    @Parameter(names = "--seconds", description = "How long to measure each workload")
+    int seconds = 10;
+
+    @Parameter(names = "--warmup", description = "Seconds of warm-up before measuring")
+    int warmupSeconds = 10;
+
+    @Parameter(
+        names = {"--help", "-h"},
+        description = "Print this help message and exit",
+        help = true)
+    boolean help = false;
+  }
+
+  /** Workload names and scripts. Each script evaluates to something other than null. */
+  private static final SortedMap<String, String> WORKLOADS =
+      new TreeMap<>(
+          Map.of(
+              "expression",
+              "6 * 7",
+              "loop",
+              "var sum = 0; for (var i = 0; i < 100000; i++) { sum += i % 7; } sum",
+              "objects",
+              "var a = []; for (var i = 0; i < 1000; i++) { a.push({id: i, sq: i * i}); }"
+                  + " JSON.stringify(a).length",
+              "java-interop",
+              "var M = Java.type('java.lang.Math'); var m = 0;"
+                  + " for (var i = 0; i < 1000; i++) { m = M.max(m, i); } m"));
+
+  private static String millis(long nanos) {
+    return String.format("%.3f ms", nanos / 1e6);
+  }
+
+  /** Runs one workload on one backend, with a session per thread, and prints the results. */
+  private static void run(Options options, String backend, String workload, String script)
+      throws InterruptedException {
+    var sessions = new ArrayList<ScriptBackend>();
+    for (int i = 0; i < options.threads; i++) {
+      var session = ScriptBackend.create(backend);
+      if (session.isFailure()) {
+        System.out.printf("%-8s %-13s skipped: %s%n", backend, workload, session.getCause());
+        return;
+      }
+      sessions.add(session.get());
+    }
+
+    Histogram latency =
+        Metrics.histogram(
+            "script_eval_seconds",
+            "Time to evaluate one script.",
+            "backend",
+            backend,
+            "workload",
+            workload);
+    var failures = new LongAdder();
+    long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+    long deadline = measureStart + TimeUnit.SECONDS.toNanos(options.seconds);
+
+    var threads = new ArrayList<Thread>();
+    for (var session : sessions) {
+      var thread =
+          new Thread(
+              () -> {
+                while (true) {
+                  long start = System.nanoTime();
+                  if (start >= deadline) {
+                    return;
+                  }
+                  var result = session.eval(script);
+                  if (start >= measureStart) {
+                    if (result.isSuccess()) {
+                      latency.record(System.nanoTime() - start);
+                    } else {
+                      failures.increment();
+                    }
+                  }
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+    for (var thread : threads) {
+      thread.join();
+    }
+
+    System.out.printf(
+        "%-8s %-13s %10.1f evals/s   p50 %s   p99 %s   max %s   %d failures%n",
+        backend,
+        workload,
+        latency.count() / (double) options.seconds,
+        millis(latency.quantileNanos(0.5)),
+        millis(latency.quantileNanos(0.99)),
+        millis(latency.maxNanos()),
+        failures.sum());
+  }
+
+  /** Main method: run with --help to see the options. */
+  public static void main(String[] args) throws InterruptedException {
+    var options = new Options();
+    CommandLine.parse("ScriptBenchmark", args, options);
+
+    System.out.printf(
+        "Java %s, %d thread(s), %d s warm-up, %d s measured%n",
+        System.getProperty("java.version"),
+        options.threads,
+        options.warmupSeconds,
+        options.seconds);
+    for (var workload : WORKLOADS.entrySet()) {
+      for (var backend : options.backends) {
+        run(options, backend, workload.getKey(), workload.getValue());
+      }
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package edu.xxx.util;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Command-line parsing for our programs' main methods, with <a
+ * href="http://jcommander.org/">JCommander</a>, so they all behave the same way when the arguments
+ * are wrong or the user asks for help.
+ */
+public final class CommandLine {
+  private CommandLine() {} // this class should never be instantiated
+
+  /**
+   * Fills in the given JCommander-annotated objects from the command-line arguments. If the
+   * arguments are malformed, this prints what's wrong and the usage message, and exits the program
+   * with status 1. If the user asked for help (with any parameter marked <code>help = true</code>),
+   * this prints the usage message and exits with status 0. Otherwise, it returns normally.
+   */
+  public static void parse(String programName, String[] args, Object options, Object... more) {
+    var builder = JCommander.newBuilder().programName(programName).addObject(options);
+    for (var o : more) {
+      builder.addObject(o);
+    }
+    var commander = builder.build();
+
+    try {
+      commander.parse(args);
+    } catch (ParameterException ex) {
+      System.err.println(ex.getMessage());
+      commander.usage();
+      System.exit(1);
+    }
+    if (commander.getParameters().stream().anyMatch(p -> p.isHelp() && p.isAssigned())) {
+      commander.usage();
+      System.exit(0);
+    }
+  }
+}
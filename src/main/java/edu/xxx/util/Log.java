@@ -5,9 +5,17 @@ import static edu.xxx.util.Strings.objectToString;
 
 import com.google.errorprone.annotations.FormatMethod;
 import com.google.errorprone.annotations.FormatString;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,19 +39,27 @@ import org.slf4j.LoggerFactory;
  * java.io.PrintStream#printf(String, Object...)} or {@link String#format(String, Object...)},
  * constructing the string to be logged only if the logging level is enabled.
  *
- * <p>There are two ways you can change the logging level. You can call {@link Log#setLogLevel(int)}
- * somewhere in your program, or you can edit the resources/logback.xml configuration, which also
- * allows you to turn on and off logging for any given tag.
+ * <p>There are several ways you can change the logging level. You can call {@link
+ * Log#setLogLevel(int)} somewhere in your program, or {@link Log#setLogLevel(String, int)} to
+ * change the level for just one tag (e.g., to turn on everything for one subsystem while the rest
+ * only logs errors). You can also point {@link Log#watchConfig(Path)} at a file of per-tag levels,
+ * which is reloaded whenever it changes, or edit the resources/logback.xml configuration, which
+ * also allows you to turn on and off logging for any given tag.
  *
  * <p>See the logback configuration manual for details: <a
  * href="http://logback.qos.ch/manual/configuration.html">http://logback.qos.ch/manual/configuration.html</a>
+ *
+ * <p>Engineering notes: levels can change at any time, from any thread, but they're read on every
+ * single log call, so we precompute everything a log call needs to know about its tag (the logger
+ * and which levels are enabled) into an immutable TagState, and keep those in a copy-on-write map
+ * published through a volatile field. Checking whether a call is enabled is then one volatile read
+ * and one lookup in a map that never changes underneath us: no locks, no allocation, and no {@link
+ * java.util.concurrent.ConcurrentHashMap#computeIfAbsent} on the fast path. Changing a level
+ * (which is rare) rebuilds the whole map.
  */
 public class Log {
   private Log() {} // this class should never be instantiated
 
-  // We need to maintain one "logger" per "tag". We keep all of that inside this loggerMap.
-  private static final Map<String, Logger> loggerMap = new ConcurrentHashMap<>();
-
   /** logging level: everything goes into the log. */
   public static final int ALL = 1;
   /** logging level: only errors go into the log. */
@@ -52,11 +68,42 @@ public class Log {
   public static final int NOTHING = -1;
 
   private static final String TAG = "Log";
+
+  // How often a watched config file is checked for changes.
+  private static final long CONFIG_POLL_MILLIS = 2000;
+
+  /** Everything a log call needs to know about its tag, precomputed whenever the levels change. */
+  private static final class TagState {
+    final Logger logger;
+    final boolean info;
+    final boolean error;
+
+    TagState(Logger logger, int level) {
+      this.logger = logger;
+      this.info = level >= ALL;
+      this.error = level >= ERROR;
+    }
+  }
+
+  // The levels as configured: a default, plus overrides for particular tags. These are only
+  // touched while synchronized on Log, and every change is followed by a call to republish().
   private static int logLevel = ALL;
+  private static final Map<String, Integer> tagLevels = new HashMap<>();
+
+  // One "logger" per "tag", along with its current levels. This map is never modified once it's
+  // published; instead, we publish a modified copy.
+  private static volatile Map<String, TagState> states = Map.of();
 
   static {
     i(TAG, "CompYYY log support ready!");
+  }
 
+  /**
+   * Logs the Java version, where it's installed, and so forth, which is handy when trying to figure
+   * out why a program behaves differently on some other machine. Servers call this as they start
+   * up, unless they're trying to start up as fast as possible.
+   */
+  public static void logSystemProperties() {
     var properties =
         List.of(
             "java.version",
@@ -71,8 +118,185 @@ public class Log {
         str -> iformat(TAG, "System property: %-17s -> %s", str, System.getProperty(str)));
   }
 
-  private static Logger logger(String tag) {
-    return loggerMap.computeIfAbsent(tag, LoggerFactory::getLogger);
+  private static TagState state(String tag) {
+    var state = states.get(tag);
+    return state != null ? state : addState(tag);
+  }
+
+  private static synchronized TagState addState(String tag) {
+    var state = states.get(tag);
+    if (state == null) {
+      state = new TagState(LoggerFactory.getLogger(tag), effectiveLevel(tag));
+      var next = new HashMap<>(states);
+      next.put(tag, state);
+      states = next;
+    }
+    return state;
+  }
+
+  /**
+   * The level for a tag: its own override if it has one, or else the override for the nearest
+   * enclosing tag, treating dots as separators (so "Utils" covers "Utils.launchBrowser"), or else
+   * the default.
+   */
+  private static synchronized int effectiveLevel(String tag) {
+    for (var t = tag; ; t = t.substring(0, t.lastIndexOf('.'))) {
+      var level = tagLevels.get(t);
+      if (level != null) {
+        return level;
+      }
+      if (t.lastIndexOf('.') < 0) {
+        return logLevel;
+      }
+    }
+  }
+
+  /** Recomputes every tag's state after a change in the levels. */
+  private static synchronized void republish() {
+    var next = new HashMap<String, TagState>();
+    states.forEach((tag, state) -> next.put(tag, new TagState(state.logger, effectiveLevel(tag))));
+    states = next;
+  }
+
+  private static void checkLevel(int level) {
+    if (level < NOTHING || level > ALL) {
+      throw new IllegalArgumentException("not a logging level: " + level);
+    }
+  }
+
+  /** Sets the default logging level ({@link #ALL}, {@link #ERROR}, or {@link #NOTHING}). */
+  public static synchronized void setLogLevel(int level) {
+    checkLevel(level);
+    logLevel = level;
+    republish();
+  }
+
+  /** Gets the default logging level. */
+  public static synchronized int getLogLevel() {
+    return logLevel;
+  }
+
+  /**
+   * Sets the logging level for one tag, and any tags under it (e.g., "Utils" also covers
+   * "Utils.launchBrowser"), overriding the default level.
+   */
+  public static synchronized void setLogLevel(String tag, int level) {
+    checkLevel(level);
+    tagLevels.put(tag, level);
+    republish();
+  }
+
+  /** Removes any override for the given tag, so it goes back to the default level. */
+  public static synchronized void clearLogLevel(String tag) {
+    tagLevels.remove(tag);
+    republish();
+  }
+
+  /** Gets a copy of all the per-tag overrides, sorted by tag. */
+  public static synchronized SortedMap<String, Integer> getTagLevels() {
+    return new TreeMap<>(tagLevels);
+  }
+
+  /**
+   * Replaces the default level and all the per-tag overrides at once, so no log call ever sees a
+   * mix of the old and new settings.
+   */
+  public static synchronized void setLogLevels(int defaultLevel, Map<String, Integer> levels) {
+    checkLevel(defaultLevel);
+    levels.values().forEach(Log::checkLevel);
+    logLevel = defaultLevel;
+    tagLevels.clear();
+    tagLevels.putAll(levels);
+    republish();
+  }
+
+  /**
+   * Converts the name of a logging level ("all", "error", or "nothing", ignoring case; "info" and
+   * "off" also work) into one of {@link #ALL}, {@link #ERROR}, or {@link #NOTHING}.
+   *
+   * @throws IllegalArgumentException if the name isn't one of those
+   */
+  public static int parseLevel(String name) {
+    switch (name.trim().toLowerCase(Locale.ROOT)) {
+      case "all":
+      case "info":
+        return ALL;
+      case "error":
+        return ERROR;
+      case "nothing":
+      case "off":
+        return NOTHING;
+      default:
+        throw new IllegalArgumentException("not a logging level: " + name);
+    }
+  }
+
+  /** The name of a logging level, as understood by {@link #parseLevel(String)}. */
+  public static String levelName(int level) {
+    checkLevel(level);
+    return level == ALL ? "all" : level == ERROR ? "error" : "nothing";
+  }
+
+  /**
+   * Starts watching a configuration file of logging levels, reloading it whenever it changes. The
+   * file is in {@link Properties} format, with one line per tag, plus an optional <code>*</code>
+   * line for the default level; tags that aren't listed use the default.
+   *
+   * <pre>
+   * * = error
+   * RateLimiter = all
+   * </pre>
+   *
+   * <p>Each reload replaces all the levels, including any set by calling {@link
+   * #setLogLevel(String, int)} in the meantime. A file that can't be read or parsed is logged and
+   * otherwise ignored, leaving the levels as they were, so a half-saved edit can't break anything.
+   */
+  public static void watchConfig(Path file) {
+    var watcher =
+        new Thread(
+            () -> {
+              FileTime lastLoaded = null;
+              while (true) {
+                try {
+                  var modified = Files.getLastModifiedTime(file);
+                  if (!modified.equals(lastLoaded)) {
+                    lastLoaded = modified;
+                    loadConfig(file);
+                  }
+                } catch (IOException ex) {
+                  lastLoaded = null; // try again once it's back
+                }
+                try {
+                  Thread.sleep(CONFIG_POLL_MILLIS);
+                } catch (InterruptedException ex) {
+                  return;
+                }
+              }
+            },
+            "Log config watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  private static void loadConfig(Path file) {
+    var properties = new Properties();
+    try (var reader = Files.newBufferedReader(file)) {
+      properties.load(reader);
+      var levels = new HashMap<String, Integer>();
+      int defaultLevel = ALL;
+      for (var tag : properties.stringPropertyNames()) {
+        int level = parseLevel(properties.getProperty(tag));
+        if (tag.equals("*")) {
+          defaultLevel = level;
+        } else {
+          levels.put(tag, level);
+        }
+      }
+      setLogLevels(defaultLevel, levels);
+      i(TAG, () -> "loaded logging levels from " + file + ": " + properties);
+    } catch (IOException | IllegalArgumentException ex) {
+      e(TAG, "couldn't load logging levels from " + file, ex);
+    }
   }
 
   /**
@@ -101,8 +325,9 @@ public class Log {
    * @param th Throwable, exception, error, etc. to be included in the log
    */
   public static void i(String tag, Supplier<?> msgFunc, Throwable th) {
-    if (logLevel == ALL) {
-      var l = logger(tag);
+    var state = state(tag);
+    if (state.info) {
+      var l = state.logger;
       if (l.isInfoEnabled()) {
         l.info(safeGet(msgFunc), th);
       }
@@ -116,8 +341,9 @@ public class Log {
    * @param msgFunc Lambda providing the string or object to be logged
    */
   public static void i(String tag, Supplier<?> msgFunc) {
-    if (logLevel == ALL) {
-      var l = logger(tag);
+    var state = state(tag);
+    if (state.info) {
+      var l = state.logger;
       if (l.isInfoEnabled()) {
         l.info(safeGet(msgFunc));
       }
@@ -131,8 +357,9 @@ public class Log {
    * @param msg String or object to be logged
    */
   public static void i(String tag, Object msg) {
-    if (logLevel == ALL) {
-      var l = logger(tag);
+    var state = state(tag);
+    if (state.info) {
+      var l = state.logger;
       if (l.isInfoEnabled()) {
         l.info(objectToString(msg));
       }
@@ -150,8 +377,9 @@ public class Log {
    */
   @FormatMethod
   public static void iformat(String tag, @FormatString String msg, Object... args) {
-    if (logLevel == ALL) {
-      var l = logger(tag);
+    var state = state(tag);
+    if (state.info) {
+      var l = state.logger;
       if (l.isInfoEnabled()) {
         l.info(String.format(msg, args));
       }
@@ -165,8 +393,9 @@ public class Log {
    * @param msgFunc Lambda providing the string or object to be logged
    */
   public static void e(String tag, Supplier<?> msgFunc) {
-    if (logLevel >= ERROR) {
-      var l = logger(tag);
+    var state = state(tag);
+    if (state.error) {
+      var l = state.logger;
       if (l.isErrorEnabled()) {
         l.error(safeGet(msgFunc));
       }
@@ -180,8 +409,9 @@ public class Log {
    * @param msg String or object to be logged
    */
   public static void e(String tag, Object msg) {
-    if (logLevel >= ERROR) {
-      var l = logger(tag);
+    var state = state(tag);
+    if (state.error) {
+      var l = state.logger;
       if (l.isErrorEnabled()) {
         l.error(objectToString(msg));
       }
@@ -196,8 +426,9 @@ public class Log {
    * @param th Throwable, exception, error, etc. to be included in the log
    */
   public static void e(String tag, Supplier<?> msgFunc, Throwable th) {
-    if (logLevel >= ERROR) {
-      var l = logger(tag);
+    var state = state(tag);
+    if (state.error) {
+      var l = state.logger;
       if (l.isErrorEnabled()) {
         l.error(safeGet(msgFunc), th);
       }
@@ -212,8 +443,9 @@ public class Log {
    * @param th Throwable, exception, error, etc. to be included in the log
    */
   public static void e(String tag, Object msg, Throwable th) {
-    if (logLevel >= ERROR) {
-      var l = logger(tag);
+    var state = state(tag);
+    if (state.error) {
+      var l = state.logger;
       if (l.isErrorEnabled()) {
         l.error(objectToString(msg), th);
       }
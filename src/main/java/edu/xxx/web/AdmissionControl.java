@@ -0,0 +1,243 @@
+package edu.xxx.web;
+
+import static edu.xxx.web.Utils.routeKey;
+import static spark.Spark.afterAfter;
+import static spark.Spark.before;
+import static spark.Spark.halt;
+
+import edu.xxx.metrics.Counter;
+import edu.xxx.metrics.Histogram;
+import edu.xxx.metrics.Metrics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import spark.Request;
+
+/**
+ * Adaptive admission control (a.k.a. load shedding) for a Spark web server. We keep track of how
+ * many requests are in flight, and once that reaches a limit, we turn new requests away with a
+ * quick 503 (service unavailable) rather than letting them pile up inside the server, where they'd
+ * make everybody's latency worse. Lower-priority requests get turned away first: with the default
+ * settings, {@link Priority#LOW} requests (like polling reads) only get half of the limit, {@link
+ * Priority#NORMAL} requests get 80%, and {@link Priority#CRITICAL} requests (like trades) can use
+ * all of it, so under overload, trades keep working while the polling slows down.
+ *
+ * <p>Engineering notes: there's no single right limit, since it depends on the machine and the
+ * workload, so we adjust it on the fly with a simplified version of the "gradient" algorithm from
+ * Netflix's concurrency-limits library. Every so often, we compare the recent average latency with
+ * the best latency we've seen lately (our estimate of the latency with no queueing at all). If
+ * they're about the same, the server has capacity to spare, and the limit grows; if recent latency
+ * is much worse, requests are queueing up somewhere, and the limit shrinks in proportion. Latency
+ * is measured from when Jetty first received the request, when we can find that out, so time spent
+ * waiting for a Jetty thread counts too.
+ *
+ * <p>Every 30 seconds we forget the best latency and start over from the current window, so we'll
+ * notice if the server has gotten slower for good, but only once we get a window in which we
+ * didn't turn anybody away. Under sustained overload, the current window's latency is mostly time
+ * spent queueing, and taking that as the no-load latency would let the limit grow right back and
+ * re-admit the overload every 30 seconds; so until the overload passes, we keep the old best.
+ */
+public final class AdmissionControl {
+  private AdmissionControl() {} // this class should never be instantiated
+
+  private static final String ROUTE_ATTRIBUTE = "edu.xxx.web.AdmissionControl.route";
+  private static final String START_ATTRIBUTE = "edu.xxx.web.AdmissionControl.start";
+
+  /** How important a route is; when the server is busy, lower priorities are turned away first. */
+  public enum Priority {
+    /** Polling reads, page renders, and anything else that can safely be retried later. */
+    LOW(0.5),
+    /** Anything not otherwise configured. */
+    NORMAL(0.8),
+    /** Requests we want to keep serving for as long as possible, like trades. */
+    CRITICAL(1.0);
+
+    /** The fraction of the concurrency limit that requests of this priority may use. */
+    final double share;
+
+    Priority(double share) {
+      this.share = share;
+    }
+  }
+
+  // The limit never goes outside these bounds.
+  private static final int MIN_LIMIT = 8;
+  private static final int MAX_LIMIT = 2000;
+  private static final int INITIAL_LIMIT = 100;
+
+  // Latency up to this multiple of the no-load latency is considered normal.
+  private static final double TOLERANCE = 2.0;
+
+  // How often we recompute the limit, and how often we forget the best latency we've seen, so
+  // we'll notice if the server has permanently gotten slower (e.g., more data to work with), as
+  // long as it isn't overloaded at the time.
+  private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MIN_LATENCY_RESET_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  /** What we track about one route. */
+  private static final class RouteState {
+    final Priority priority;
+    final AtomicInteger inFlight = new AtomicInteger();
+    final Histogram latency;
+    final Counter shed;
+
+    RouteState(String route, Priority priority) {
+      this.priority = priority;
+      this.latency =
+          Metrics.histogram(
+              "admission_latency_seconds",
+              "Time from arrival at Jetty until the response, including queueing.",
+              "route",
+              route);
+      this.shed =
+          Metrics.counter(
+              "admission_shed_total", "Requests refused by admission control.", "route", route);
+      Metrics.gauge(
+          "admission_in_flight",
+          "Requests currently being handled.",
+          inFlight::get,
+          "route",
+          route);
+    }
+  }
+
+  private static final Map<String, RouteState> routes = new ConcurrentHashMap<>();
+  private static final RouteState otherRoutes = new RouteState("other", Priority.NORMAL);
+
+  private static final AtomicInteger inFlight = new AtomicInteger();
+  private static volatile double limit = INITIAL_LIMIT;
+
+  // The current measurement window, and the best window average we've seen lately.
+  private static final LongAdder windowLatencySum = new LongAdder();
+  private static final LongAdder windowCount = new LongAdder();
+  private static final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+  private static final AtomicInteger windowMaxInFlight = new AtomicInteger();
+  private static final LongAdder windowShed = new LongAdder();
+  // These are only touched by whichever thread closes a window, but that's a different thread each
+  // time, hence volatile.
+  private static volatile long minLatency = Long.MAX_VALUE;
+  private static volatile long minLatencySince = System.nanoTime();
+
+  /**
+   * Sets the priority of the given route, named by its first path segment as in {@link
+   * Utils#routeKey(Request)}. Routes that aren't configured are {@link Priority#NORMAL}.
+   */
+  public static void priority(String route, Priority priority) {
+    routes.put(route, new RouteState(route, priority));
+  }
+
+  /** The current concurrency limit, for your monitoring pleasure. */
+  public static double currentLimit() {
+    return limit;
+  }
+
+  /**
+   * When did this request first arrive? Jetty writes this down (in milliseconds) when it starts
+   * parsing the request, which lets us see how long it waited before reaching us. If we can't get
+   * at that, we'll settle for right now.
+   */
+  private static long arrivalNanos(Request request, long now) {
+    var jettyRequest = org.eclipse.jetty.server.Request.getBaseRequest(request.raw());
+    if (jettyRequest == null || jettyRequest.getTimeStamp() == 0) {
+      return now;
+    }
+    long waitedMillis = System.currentTimeMillis() - jettyRequest.getTimeStamp();
+    return now - TimeUnit.MILLISECONDS.toNanos(Math.max(waitedMillis, 0));
+  }
+
+  private static boolean tryAdmit(RouteState state) {
+    int current = inFlight.incrementAndGet();
+    if (current > limit * state.priority.share) {
+      inFlight.decrementAndGet();
+      windowShed.increment();
+      return false;
+    }
+    if (current > windowMaxInFlight.get()) {
+      windowMaxInFlight.accumulateAndGet(current, Math::max);
+    }
+    state.inFlight.incrementAndGet();
+    return true;
+  }
+
+  private static void release(RouteState state, long latencyNanos, long now) {
+    state.inFlight.decrementAndGet();
+    inFlight.decrementAndGet();
+    state.latency.record(latencyNanos);
+    windowLatencySum.add(latencyNanos);
+    windowCount.increment();
+
+    long start = windowStart.get();
+    if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+      closeWindow(now); // only the one thread that won the compareAndSet gets here
+    }
+  }
+
+  /** Recomputes the limit from the measurements in the window that just ended. */
+  private static void closeWindow(long now) {
+    long count = windowCount.sumThenReset();
+    long sum = windowLatencySum.sumThenReset();
+    int maxInFlight = windowMaxInFlight.getAndSet(0);
+    boolean shed = windowShed.sumThenReset() > 0;
+    if (count == 0) {
+      return;
+    }
+    long average = sum / count;
+
+    // Only start over from a window that wasn't overloaded; see the engineering notes.
+    if (now - minLatencySince >= MIN_LATENCY_RESET_NANOS && !shed) {
+      minLatency = average;
+      minLatencySince = now;
+    } else {
+      minLatency = Math.min(minLatency, average);
+    }
+
+    // A gradient of 1 means no queueing (grow the limit), while smaller gradients mean latency is
+    // getting worse (shrink the limit, at most halving it per window). The square root term leaves
+    // a little room for queueing, so the limit is always probing for more capacity.
+    double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minLatency / (double) average));
+    double oldLimit = limit;
+    double newLimit = oldLimit * gradient + Math.sqrt(oldLimit);
+
+    // If we weren't using even half the limit, we learned nothing about whether a higher limit
+    // would be okay, so don't raise it. Otherwise, a quiet server would drift up to MAX_LIMIT and
+    // then take a while to come back down when the load arrives.
+    if (maxInFlight < oldLimit / 2) {
+      newLimit = Math.min(newLimit, oldLimit);
+    }
+    limit = Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, 0.8 * oldLimit + 0.2 * newLimit));
+  }
+
+  /**
+   * Installs the admission control filters into the Spark web server. These should go after any
+   * cheaper filters (like rate limiting) that might turn a request away on their own.
+   */
+  public static void install() {
+    Metrics.gauge("admission_limit", "Current adaptive concurrency limit.", () -> limit);
+    Metrics.gauge("admission_in_flight_total", "Requests currently admitted.", inFlight::get);
+
+    before(
+        (request, response) -> {
+          var state = routes.getOrDefault(routeKey(request), otherRoutes);
+          if (!tryAdmit(state)) {
+            state.shed.inc();
+            response.header("Retry-After", "1");
+            halt(503, "Server busy, please try again.");
+          }
+          request.attribute(ROUTE_ATTRIBUTE, state);
+          request.attribute(START_ATTRIBUTE, arrivalNanos(request, System.nanoTime()));
+        });
+
+    afterAfter(
+        (request, response) -> {
+          RouteState state = request.attribute(ROUTE_ATTRIBUTE);
+          Long start = request.attribute(START_ATTRIBUTE);
+          if (state != null && start != null) {
+            long now = System.nanoTime();
+            release(state, now - start, now);
+          }
+        });
+  }
+}
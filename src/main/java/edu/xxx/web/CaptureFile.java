@@ -0,0 +1,176 @@
+package edu.xxx.web;
+
+import io.vavr.control.Try;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The file format for HTTP traffic captured by {@link TrafficCapture} and replayed by {@link
+ * TrafficReplay}: a header, then one record per request, saying when it arrived, what it asked for,
+ * and how the server answered.
+ *
+ * <p>Engineering notes: to keep captures small (and cheap to write), every number is a variable
+ * length integer, seven bits per byte, and times are in microseconds, relative to the previous
+ * request, so a typical request takes well under a dozen bytes. Strings (methods and URLs) go
+ * into a table the first time we see them, and afterwards we just write their number in the table,
+ * which works because real traffic asks for the same few thousand URLs over and over. The table
+ * has a maximum size, so somebody probing random URLs can't make it grow without bound; past that,
+ * new strings are written out in full every time. The reader follows the same rules, so it
+ * rebuilds exactly the same table as it goes.
+ */
+final class CaptureFile {
+  private CaptureFile() {} // this class should never be instantiated
+
+  private static final int MAGIC = 0x43415031; // "CAP1"
+  private static final int MAX_STRINGS = 1 << 16;
+
+  /** One captured request. */
+  static final class Record {
+    /** When the request arrived, in microseconds since the capture started. */
+    final long startMicros;
+
+    final String method;
+
+    /** The path and query string, like <code>/price/?index=0</code>. */
+    final String target;
+
+    final int status;
+    final long durationMicros;
+
+    Record(long startMicros, String method, String target, int status, long durationMicros) {
+      this.startMicros = startMicros;
+      this.method = method;
+      this.target = target;
+      this.status = status;
+      this.durationMicros = durationMicros;
+    }
+  }
+
+  /** Writes records to a capture file; used by one thread at a time. */
+  static final class Writer implements Closeable {
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private long previousStart = 0;
+
+    Writer(OutputStream out, long startEpochMillis) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(out));
+      this.out.writeInt(MAGIC);
+      this.out.writeLong(startEpochMillis);
+    }
+
+    void write(Record record) throws IOException {
+      // Requests are written as they finish, so they're not quite in order of arrival, and the
+      // difference can be negative; zig-zag encoding keeps small negative numbers small.
+      long delta = record.startMicros - previousStart;
+      writeVarLong((delta << 1) ^ (delta >> 63));
+      previousStart = record.startMicros;
+      writeString(record.method);
+      writeString(record.target);
+      writeVarLong(record.status);
+      writeVarLong(record.durationMicros);
+    }
+
+    private void writeString(String s) throws IOException {
+      var number = strings.get(s);
+      if (number != null) {
+        writeVarLong(number + 1);
+        return;
+      }
+      writeVarLong(0); // a new string, written in full
+      out.writeUTF(s);
+      if (strings.size() < MAX_STRINGS) {
+        strings.put(s, strings.size());
+      }
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      while ((value & ~0x7fL) != 0) {
+        out.write((int) (value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      out.write((int) value);
+    }
+
+    void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  private static long readVarLong(InputStream in) throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      result |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("malformed number in capture file");
+  }
+
+  /**
+   * Reads all the records in a capture file, in the order they were written. A record cut off at
+   * the end (if the server didn't stop cleanly) is ignored.
+   */
+  static Try<List<Record>> read(Path file) {
+    return Try.of(
+        () -> {
+          try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+              throw new IOException(file + " isn't a capture file");
+            }
+            in.readLong(); // start time, only for people looking at the file
+
+            var strings = new ArrayList<String>();
+            var records = new ArrayList<Record>();
+            long start = 0;
+            try {
+              while (true) {
+                long zigzag = readVarLong(in);
+                start += (zigzag >>> 1) ^ -(zigzag & 1);
+                var method = readString(in, strings);
+                var target = readString(in, strings);
+                int status = (int) readVarLong(in);
+                long duration = readVarLong(in);
+                records.add(new Record(start, method, target, status, duration));
+              }
+            } catch (EOFException ex) {
+              return records;
+            }
+          }
+        });
+  }
+
+  private static String readString(DataInputStream in, List<String> strings) throws IOException {
+    int number = (int) readVarLong(in);
+    if (number > 0) {
+      return strings.get(number - 1);
+    }
+    var s = in.readUTF();
+    if (strings.size() < MAX_STRINGS) {
+      strings.add(s);
+    }
+    return s;
+  }
+}
@@ -0,0 +1,134 @@
+package edu.xxx.web;
+
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import javax.annotation.Nullable;
+import spark.Request;
+import spark.Response;
+
+/** Helpers for HTTP caching headers: ETags, conditional requests, and content negotiation. */
+public interface HttpCaching {
+  /**
+   * Decides whether an <code>If-None-Match</code> request header matches any of the given ETags,
+   * which means the browser already has an up-to-date copy and we can answer with a bodiless 304
+   * response. The header can be <code>*</code> or a comma-separated list of (possibly weak) tags.
+   * Per the HTTP spec, weak tags (<code>W/"..."</code>) count as matches here.
+   *
+   * @param ifNoneMatch The header from the request, or null if there wasn't one
+   * @param etags One or more ETags, including the quotes, for the representation we'd serve
+   */
+  static boolean etagMatches(@Nullable String ifNoneMatch, String... etags) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (var candidate : ifNoneMatch.split(",")) {
+      var tag = candidate.trim();
+      if (tag.equals("*")) {
+        return true;
+      }
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      for (var etag : etags) {
+        if (tag.equals(etag)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Handles a conditional GET for a Spark route: puts the given ETag on the response and, if the
+   * browser's <code>If-None-Match</code> header says it already has that version, sets the status
+   * to 304 (not modified) and returns true, in which case the route should return an empty body.
+   * Otherwise, returns false and the route should carry on as usual.
+   *
+   * <pre>
+   * if (notModified(request, response, view.etag)) {
+   *   return "";
+   * }
+   * </pre>
+   */
+  static boolean notModified(Request request, Response response, String etag) {
+    response.header("ETag", etag);
+    if (etagMatches(request.headers("If-None-Match"), etag)) {
+      response.status(304);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Decides whether the <code>Accept-Encoding</code> request header says the client can take the
+   * given content coding (e.g., "gzip"), paying attention to <code>q=0</code>, which means "no".
+   *
+   * @param acceptEncoding The header from the request, or null if there wasn't one
+   * @param coding The content coding we'd like to use
+   */
+  static boolean acceptsEncoding(@Nullable String acceptEncoding, String coding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (var candidate : acceptEncoding.split(",")) {
+      var parts = candidate.split(";");
+      var name = parts[0].trim();
+      if (name.equalsIgnoreCase(coding) || name.equals("*")) {
+        for (int i = 1; i < parts.length; i++) {
+          var param = parts[i].trim();
+          if (param.startsWith("q=")) {
+            try {
+              return Double.parseDouble(param.substring(2)) > 0;
+            } catch (NumberFormatException ex) {
+              return false;
+            }
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Picks whichever of the given media types the <code>Accept</code> request header likes best,
+   * going by its <code>q</code> values, with ties going to the type listed first here. Only types
+   * the header names explicitly count; wildcards like <code>*&#47;*</code> don't, so the result
+   * is empty for a client (like a web browser) that didn't ask for any of them in particular.
+   *
+   * @param accept The header from the request, or null if there wasn't one
+   * @param mediaTypes The media types we could send, most preferred first
+   */
+  static Option<String> preferredType(@Nullable String accept, String... mediaTypes) {
+    String best = null;
+    double bestQuality = 0;
+    for (var type : mediaTypes) {
+      double quality = quality(accept, type);
+      if (quality > bestQuality) {
+        best = type;
+        bestQuality = quality;
+      }
+    }
+    return Option.of(best);
+  }
+
+  /** The <code>q</code> value an <code>Accept</code> header gives a media type, 0 if none. */
+  private static double quality(@Nullable String accept, String mediaType) {
+    if (accept == null) {
+      return 0;
+    }
+    for (var candidate : accept.split(",")) {
+      var parts = candidate.split(";");
+      if (parts[0].trim().equalsIgnoreCase(mediaType)) {
+        for (int i = 1; i < parts.length; i++) {
+          var param = parts[i].trim();
+          if (param.startsWith("q=")) {
+            return Try.of(() -> Double.parseDouble(param.substring(2))).getOrElse(0.0);
+          }
+        }
+        return 1;
+      }
+    }
+    return 0;
+  }
+}
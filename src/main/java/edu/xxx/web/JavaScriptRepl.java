@@ -1,7 +1,6 @@
 
 package edu.xxx.web;
 
-import static edu.xxx.vavr.Tries.tryOfNullable;
 import static edu.xxx.web.Utils.bigRandom;
 import static edu.xxx.web.Utils.jsonSparkExceptionHandler;
 import static edu.xxx.web.Utils.launchBrowser;
@@ -15,16 +14,21 @@ import static j2html.TagCreator.h1;
 import static j2html.TagCreator.html;
 import static j2html.TagCreator.p;
 import static spark.Spark.get;
-import static spark.Spark.staticFileLocation;
 
+import com.beust.jcommander.Parameter;
+import edu.xxx.jfr.ScriptEvalEvent;
+import edu.xxx.script.ScriptBackend;
 import edu.xxx.util.Log;
+import io.vavr.Lazy;
 import io.vavr.control.Option;
-import javax.script.ScriptEngineManager;
-import org.json.JSONObject;
+import io.vavr.control.Try;
+import spark.Request;
+import spark.Response;
 
 /**
- * A read-eval-print loop for Nashorn (the JavaScript environment built into Java8) which runs in a
- * web page.
+ * A read-eval-print loop for JavaScript which runs in a web page. The JavaScript engine is either
+ * Nashorn (the JavaScript environment built into Java 8 through 14) or GraalJS; see {@link
+ * ScriptBackend}.
  *
  * <p>This is cool because you can see all of the Java classes that you've created and use them
  * interactively. Java9 will support a REPL for the Java language, itself, but for our purposes
@@ -44,7 +48,7 @@ public class JavaScriptRepl {
    * field and returned to the server as part of the JSON structure. That's how we reject requests
    * that might arrive from elsewhere than the browser that we want.
    */
-  private static final String accessKey = bigRandom(80);
+  private static final Lazy<String> accessKey = Lazy.of(() -> bigRandom(80));
 
   /**
    * The launchCode represents a single-use key, which we feed to the browser as part of the initial
@@ -58,13 +62,36 @@ public class JavaScriptRepl {
    */
   private static final String launchCode = bigRandom(20);
 
+  /**
+   * The JavaScript engine, which takes a noticeable fraction of a second to create, so we don't
+   * make it until the server is already up and running. (See {@link #launch(ServerOptions,
+   * String)}.) If the engine isn't available, this holds the reason why.
+   */
+  private static volatile Lazy<Try<ScriptBackend>> backend =
+      Lazy.of(() -> ScriptBackend.create(ScriptBackend.AUTO));
+
+  /** Command-line options for the REPL, on top of the usual {@link ServerOptions}. */
+  static class Options {
+    @Parameter(
+        names = "--script-backend",
+        description = "JavaScript engine: auto (Nashorn if this JDK has it), nashorn, or graaljs")
+    String scriptBackend = ScriptBackend.AUTO;
+  }
+
   /** This boolean tracks whether we've consumed the launchCode. */
   private static boolean launchCodeUsed = false;
 
-  /** When we want to log an error and return an error JSON response. */
-  private static String logAndJsonError(String errorMessage) {
+  /** When we want to log an error and return an error JSON (or CBOR) response. */
+  private static String logAndEncodedError(
+      Request request, Response response, String errorMessage) {
     Log.e(TAG, errorMessage);
-    return new JSONObject().put("response", errorMessage).toString();
+    return encodedResponse(request, response, errorMessage);
+  }
+
+  /** The REPL's answer to the browser, in JSON (or CBOR, if asked): {"response": text}. */
+  private static String encodedResponse(Request request, Response response, String text) {
+    return Responses.encoded(
+        request, response, out -> out.beginObject().field("response", text).endObject());
   }
 
   /** When we want to log an error and return an error HTML response. */
@@ -78,15 +105,45 @@ public class JavaScriptRepl {
    * doing, so it can call any public static method, perhaps useful for inspecting state.
    */
   public static void launch() {
-    Log.i(TAG, "Starting!");
+    launch(new ServerOptions());
+  }
+
+  /**
+   * Launch a JavaScript REPL, as with {@link #launch()}, paying attention to the port and browser
+   * options. (The options should already have been {@link ServerOptions#apply() applied}.)
+   */
+  public static void launch(ServerOptions options) {
+    launch(options, ScriptBackend.AUTO);
+  }
 
-    // Create a Nashorn JavaScript instance
-    final var engine = new ScriptEngineManager().getEngineByName("nashorn");
+  /**
+   * Launch a JavaScript REPL, as with {@link #launch(ServerOptions)}, using the named {@link
+   * ScriptBackend}.
+   */
+  public static void launch(ServerOptions options, String scriptBackend) {
+    Log.i(TAG, "Starting!");
+    backend =
+        Lazy.of(
+            () ->
+                ScriptBackend.create(scriptBackend)
+                    .onSuccess(b -> Log.i(TAG, "JavaScript backend: " + b.name()))
+                    .onFailure(err -> Log.e(TAG, "JavaScript backend unavailable", err)));
 
     // Initialize the SparkJava web server
-    staticFileLocation("/WebPublic");
     jsonSparkExceptionHandler(TAG);
-    launchBrowser("http://localhost:4567/jsrepl/" + launchCode);
+    SparkMetrics.install();
+    LogLevels.install();
+    StaticAssets.install("/WebPublic");
+    RateLimiter.limit("/jseval/", 5, 10);
+    RateLimiter.limit("/jsrepl/", 1, 5);
+    RateLimiter.install();
+    AdmissionControl.install();
+    var url = "http://localhost:" + options.port + "/jsrepl/" + launchCode;
+    if (options.noBrowser) {
+      Log.i(TAG, "REPL ready at " + url);
+    } else {
+      launchBrowser(url);
+    }
 
     // This handles the requests that we field from the web page,
     // evaluating JavaScript strings and returning the results to be
@@ -113,16 +170,18 @@ public class JavaScriptRepl {
           response.header("cache-control", "no-cache");
 
           return oCommandLine.fold(
-              () -> logAndJsonError("empty command line"),
+              () -> logAndEncodedError(request, response, "empty command line"),
               commandLine ->
                   oFoundKey.fold(
-                      () -> logAndJsonError("absent access key, permission denied"),
+                      () ->
+                          logAndEncodedError(
+                              request, response, "absent access key, permission denied"),
                       foundKey -> {
                         // We're only going to evaluate the statement
                         // if we got the access key, because security
                         // matters.
 
-                        if (accessKey.equals(foundKey)) {
+                        if (accessKey.get().equals(foundKey)) {
                           // Engineering notes: we're constructing the
                           // JSON response, which includes evaluating
                           // the commandLine and dealing with any
@@ -136,16 +195,32 @@ public class JavaScriptRepl {
                           // us to the failure case. So fine, we deal
                           // with that explicitly.
 
+                          final var event = new ScriptEvalEvent(); // for the flight recorder
+                          event.begin();
+
+                          final var session = backend.get();
+                          event.backend = session.map(ScriptBackend::name).getOrElse("none");
+
                           final var jsEvalTxt =
-                              tryOfNullable(() -> engine.eval(commandLine))
-                                  .map(Object::toString)
+                              session
+                                  .flatMap(b -> b.eval(commandLine))
+                                  .onSuccess(txt -> event.outcome = "ok")
                                   .recover(
-                                      exception ->
-                                          (exception instanceof NullPointerException)
-                                              ? "null"
-                                              : "Error: " + exception.getMessage())
+                                      exception -> {
+                                        if (exception instanceof NullPointerException) {
+                                          event.outcome = "null";
+                                          return "null";
+                                        } else {
+                                          event.outcome = "error";
+                                          return "Error: " + exception.getMessage();
+                                        }
+                                      })
                                   .get();
 
+                          event.scriptLength = commandLine.length();
+                          event.resultLength = jsEvalTxt.length();
+                          event.commit();
+
                           // Notice how we're building the response
                           // with j2html rather than just
                           // concatenating a bunch of raw HTML text
@@ -170,10 +245,13 @@ public class JavaScriptRepl {
                           // we deal with constructing the HTML
                           // response. Lastly, we package that into a
                           // JSON message. Three stages, three values.
+                          // (The JSON is streamed straight out, without
+                          // building a JSONObject and a String first.)
 
-                          return new JSONObject().put("response", responseTxt).toString();
+                          return encodedResponse(request, response, responseTxt);
                         } else {
-                          return logAndJsonError("incorrect access key, permission denied");
+                          return logAndEncodedError(
+                              request, response, "incorrect access key, permission denied");
                         }
                       }));
         });
@@ -191,18 +269,28 @@ public class JavaScriptRepl {
                   launchCodeUsed = true;
                   return html()
                       .with(
-                          muicssHeader("Nashorn JavaScript REPL", "/jsrepl.js", "/commandline.css"),
-                          muicssCommandLineBody("Nashorn JavaScript REPL!", "accessKey", accessKey))
+                          muicssHeader("JavaScript REPL", "/jsrepl.js", "/commandline.css"),
+                          muicssCommandLineBody("JavaScript REPL!", "accessKey", accessKey.get()))
                       .renderFormatted();
                 } else {
                   return logAndHtmlError("incorrect launch code, permission denied");
                 }
               });
         });
+
+    // Now that the routes are in place, get the engine ready in the background, so the first
+    // evaluation probably won't have to wait for it, but starting the server doesn't either.
+    var warmUp = new Thread(backend::get, "JavaScript warm-up");
+    warmUp.setDaemon(true);
+    warmUp.start();
   }
 
-  /** Main routine that just launches the JavaScript REPL. */
+  /** Main routine that just launches the JavaScript REPL; try --help to see the options. */
   public static void main(String[] args) {
-    launch();
+    var replOptions = new Options();
+    var options = ServerOptions.parse("JavaScriptRepl", args, replOptions);
+    options.apply();
+    launch(options, replOptions.scriptBackend);
+    options.ready();
   }
 }
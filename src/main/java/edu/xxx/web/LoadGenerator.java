@@ -0,0 +1,164 @@
+package edu.xxx.web;
+
+import com.beust.jcommander.Parameter;
+import edu.xxx.metrics.Counter;
+import edu.xxx.metrics.Histogram;
+import edu.xxx.metrics.Metrics;
+import edu.xxx.util.CommandLine;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A closed-loop HTTP load generator: a fixed number of simulated clients each send a request, wait
+ * for the answer, and immediately send the next one, for a fixed amount of time. At the end, it
+ * prints the throughput and latency percentiles. Useful for comparing server configurations, like
+ * a platform thread pool versus <code>--virtual-threads</code>, by running the same load against
+ * each in turn:
+ *
+ * <pre>
+ * ./gradlew runMarketServer --args='--threads 200'
+ * ./gradlew runLoadGenerator --args='--clients 2000 --url http://localhost:4567/price/?index=0'
+ * </pre>
+ *
+ * <p>A URL containing <code>{n}</code> is expanded into <code>--keys</code> URLs, with the numbers
+ * 0, 1, 2, and so on in its place, which is handy for spreading the load across many accounts:
+ * <code>--url 'http://localhost:4567/funds/?account=user{n}' --keys 10000</code>.
+ *
+ * <p>Engineering notes: the clients are asynchronous (each one is a chain of {@link
+ * HttpClient#sendAsync} calls), so the load generator itself can simulate many thousands of them
+ * with a handful of threads, rather than becoming the bottleneck it's trying to measure.
+ */
+public class LoadGenerator {
+  /** Command-line options for the load generator. */
+  static class Options {
+    @Parameter(
+        names = "--url",
+        description = "URL to request; give more than one to spread the load round-robin")
+    List<String> urls = new ArrayList<>(List.of("http://localhost:4567/price/?index=0"));
+
+    @Parameter(names = "--keys", description = "How many URLs to make from each URL with {n} in it")
+    int keys = 1000;
+
+    @Parameter(names = "--clients", description = "Number of concurrent simulated clients")
+    int clients = 100;
+
+    @Parameter(names = "--seconds", description = "How long to measure, after warming up")
+    int seconds = 30;
+
+    @Parameter(names = "--warmup", description = "Seconds of load before measurement begins")
+    int warmupSeconds = 5;
+
+    @Parameter(names = "--label", description = "Label to print alongside the results")
+    String label = "run";
+
+    @Parameter(
+        names = {"--help", "-h"},
+        description = "Print this help message and exit",
+        help = true)
+    boolean help = false;
+  }
+
+  private final List<HttpRequest> requests = new ArrayList<>();
+  private final HttpClient client;
+  private final Histogram latency =
+      Metrics.histogram("loadgen_request_duration_seconds", "Load generator request latency.");
+  private final Counter errors =
+      Metrics.counter("loadgen_errors_total", "Load generator requests that failed.");
+  private final long measureStart;
+  private final long deadline;
+  private final CountDownLatch finished;
+  private final AtomicLong next = new AtomicLong();
+
+  private LoadGenerator(Options options) {
+    // Key by key, and URL by URL within each key, so that consecutive requests go round-robin
+    // across the URLs (e.g., across the nodes of a cluster), not through every key of one URL
+    // before moving on to the next.
+    int keys = options.urls.stream().anyMatch(url -> url.contains("{n}")) ? options.keys : 1;
+    for (int n = 0; n < keys; n++) {
+      for (var url : options.urls) {
+        if (n > 0 && !url.contains("{n}")) {
+          continue;
+        }
+        var expanded = url.replace("{n}", Integer.toString(n));
+        requests.add(
+            HttpRequest.newBuilder(URI.create(expanded)).timeout(Duration.ofSeconds(30)).build());
+      }
+    }
+    client =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()))
+            .build();
+    measureStart = System.nanoTime() + Duration.ofSeconds(options.warmupSeconds).toNanos();
+    deadline = measureStart + Duration.ofSeconds(options.seconds).toNanos();
+    finished = new CountDownLatch(options.clients);
+  }
+
+  /** Sends the next request for one simulated client, and arranges to send another after that. */
+  private void fire() {
+    long start = System.nanoTime();
+    if (start >= deadline) {
+      finished.countDown();
+      return;
+    }
+
+    // All the clients take turns with one cursor, so together they cycle through every request.
+    var request = requests.get((int) (next.getAndIncrement() % requests.size()));
+    client
+        .sendAsync(request, HttpResponse.BodyHandlers.discarding())
+        .whenComplete(
+            (response, err) -> {
+              if (start >= measureStart) {
+                if (err == null && response.statusCode() < 400) {
+                  latency.record(System.nanoTime() - start);
+                } else {
+                  errors.inc();
+                }
+              }
+              fire();
+            });
+  }
+
+  private static String millis(long nanos) {
+    return String.format("%.3f ms", nanos / 1e6);
+  }
+
+  /** Main method: run with --help to see the options. */
+  public static void main(String[] args) throws InterruptedException {
+    var options = new Options();
+    CommandLine.parse("LoadGenerator", args, options);
+
+    var generator = new LoadGenerator(options);
+    for (int i = 0; i < options.clients; i++) {
+      generator.fire();
+    }
+    generator.finished.await();
+
+    var h = generator.latency;
+    System.out.printf(
+        "%s: %d clients, %d requests in %d s = %.1f req/s, %d errors%n",
+        options.label,
+        options.clients,
+        h.count(),
+        options.seconds,
+        h.count() / (double) options.seconds,
+        generator.errors.get());
+    System.out.printf(
+        "%s: latency p50 %s, p90 %s, p99 %s, p99.9 %s, max %s%n",
+        options.label,
+        millis(h.quantileNanos(0.5)),
+        millis(h.quantileNanos(0.9)),
+        millis(h.quantileNanos(0.99)),
+        millis(h.quantileNanos(0.999)),
+        millis(h.maxNanos()));
+    System.exit(0); // the HttpClient's threads would otherwise keep us alive
+  }
+}
@@ -0,0 +1,87 @@
+package edu.xxx.web;
+
+import static spark.Spark.get;
+import static spark.Spark.post;
+
+import edu.xxx.util.Log;
+import io.vavr.control.Option;
+
+/**
+ * An admin endpoint for viewing and changing {@link Log} levels while the server is running, so you
+ * can turn on verbose logging for one subsystem in production and turn it off again afterwards:
+ *
+ * <pre>
+ * curl localhost:4567/admin/log/
+ * curl -X POST 'localhost:4567/admin/log/?tag=RateLimiter&amp;level=all'
+ * curl -X POST 'localhost:4567/admin/log/?tag=*&amp;level=error'
+ * curl -X POST 'localhost:4567/admin/log/?tag=RateLimiter&amp;level=default'
+ * </pre>
+ *
+ * <p>The tag <code>*</code> stands for the default level, and the level <code>default</code>
+ * removes a tag's override. Changes are only accepted from the same machine.
+ */
+public final class LogLevels {
+  private LogLevels() {} // this class should never be instantiated
+
+  private static final String TAG = "LogLevels";
+  private static final String DEFAULT_TAG = "*";
+
+  /** All the levels, one per line, in the same format {@link Log#watchConfig} reads. */
+  private static String render() {
+    var result = new StringBuilder();
+    result.append(line(DEFAULT_TAG, Log.getLogLevel()));
+    Log.getTagLevels().forEach((tag, level) -> result.append(line(tag, level)));
+    return result.toString();
+  }
+
+  private static String line(String tag, int level) {
+    return tag + " = " + Log.levelName(level) + "\n";
+  }
+
+  /** Installs the <code>/admin/log/</code> endpoint into the Spark web server. */
+  public static void install() {
+    get(
+        "/admin/log/",
+        (request, response) -> {
+          response.type("text/plain; charset=utf-8");
+          response.header("cache-control", "no-store");
+          return render();
+        });
+
+    post(
+        "/admin/log/",
+        (request, response) -> {
+          response.type("text/plain; charset=utf-8");
+          response.header("cache-control", "no-store");
+          if (!Utils.isLocalRequest(request)) {
+            response.status(403);
+            return "Log levels can only be changed from the server itself.\n";
+          }
+
+          var tag = Option.of(request.queryParams("tag")).filter(t -> !t.isEmpty());
+          var level = Option.of(request.queryParams("level"));
+          if (tag.isEmpty() || level.isEmpty()) {
+            response.status(400);
+            return "Need both tag and level parameters.\n";
+          }
+
+          try {
+            if (level.get().equals("default")) {
+              if (!tag.get().equals(DEFAULT_TAG)) {
+                Log.clearLogLevel(tag.get());
+              }
+            } else if (tag.get().equals(DEFAULT_TAG)) {
+              Log.setLogLevel(Log.parseLevel(level.get()));
+            } else {
+              Log.setLogLevel(tag.get(), Log.parseLevel(level.get()));
+            }
+          } catch (IllegalArgumentException ex) {
+            response.status(400);
+            return ex.getMessage() + "\n";
+          }
+
+          Log.i(TAG, "log level for " + tag.get() + " set to " + level.get());
+          return render();
+        });
+  }
+}
@@ -0,0 +1,162 @@
+package edu.xxx.web;
+
+import static edu.xxx.web.Utils.routeKey;
+import static spark.Spark.before;
+import static spark.Spark.halt;
+
+import edu.xxx.metrics.Counter;
+import edu.xxx.metrics.Metrics;
+import edu.xxx.util.Log;
+import io.vavr.control.Option;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import spark.Request;
+
+/**
+ * Per-client, per-route rate limiting for a Spark web server. Each route you configure with {@link
+ * #limit(String, double, int)} gets a token bucket for each client (by IP address). A client that
+ * runs its bucket dry gets a 429 (too many requests) response, without ever reaching the route's
+ * handler, so one misbehaving client can't slow down everybody else.
+ *
+ * <p>Engineering notes: we implement the token bucket in its "generic cell rate algorithm" form,
+ * where the whole state of a bucket is a single number, the "theoretical arrival time" at which
+ * the bucket would be full again. Taking a token is then one compare-and-set on an {@link
+ * AtomicLong}: no locks, and no background thread refilling buckets. A bucket whose theoretical
+ * arrival time is in the past is full, which is exactly what a brand-new bucket looks like, so we
+ * can throw it away at any time without changing anybody's limits. That's how we keep the table of
+ * buckets bounded: when it gets too big, we sweep out the full ones. A sweep looks at every bucket
+ * in the table, so we sweep each route's table at most once a second; in between, and if the table
+ * is still too big after a sweep (say, during an attack from many addresses), new clients share a
+ * single overflow bucket for the route until things calm down. Otherwise, that same attack would
+ * cost us a pass over the whole table on nearly every request.
+ */
+public final class RateLimiter {
+  private RateLimiter() {} // this class should never be instantiated
+
+  private static final String TAG = "RateLimiter";
+  private static final String OVERFLOW_CLIENT = "overflow";
+
+  /** Maximum number of client buckets kept for each route. */
+  public static final int MAX_CLIENTS_PER_ROUTE = 100_000;
+
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** The configured limit for one route, along with its table of per-client buckets. */
+  private static final class Limit {
+    final long intervalNanos; // time to earn back one token
+    final long burstNanos; // how far ahead of schedule a client may get
+    final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    final AtomicLong lastSweep = new AtomicLong(System.nanoTime() - SWEEP_INTERVAL_NANOS);
+    final Counter rejected;
+
+    Limit(String route, double requestsPerSecond, int burst) {
+      intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+      burstNanos = intervalNanos * (burst - 1);
+      rejected =
+          Metrics.counter(
+              "http_rate_limited_total", "Requests refused by the rate limiter.", "route", route);
+    }
+
+    AtomicLong bucket(String client, long now) {
+      var bucket = buckets.get(client);
+      if (bucket != null) {
+        return bucket;
+      }
+      if (buckets.size() >= MAX_CLIENTS_PER_ROUTE) {
+        sweep(now);
+        if (buckets.size() >= MAX_CLIENTS_PER_ROUTE) {
+          client = OVERFLOW_CLIENT;
+        }
+      }
+      return buckets.computeIfAbsent(client, c -> new AtomicLong(now));
+    }
+
+    /**
+     * Throws away every full bucket, unless the table was swept less than a second ago; only the
+     * thread that wins the compare-and-set bothers doing this.
+     */
+    void sweep(long now) {
+      long last = lastSweep.get();
+      if (now - last >= SWEEP_INTERVAL_NANOS && lastSweep.compareAndSet(last, now)) {
+        buckets.values().removeIf(tat -> tat.get() <= now);
+      }
+    }
+
+    /** Takes a token, returning zero if we got one, or else how many nanoseconds until we would. */
+    long acquire(AtomicLong tat, long now) {
+      while (true) {
+        long current = tat.get();
+        long start = Math.max(current, now);
+        long ahead = start - now;
+        if (ahead > burstNanos) {
+          return ahead - burstNanos;
+        }
+        if (tat.compareAndSet(current, start + intervalNanos)) {
+          return 0;
+        }
+      }
+    }
+  }
+
+  private static final Map<String, Limit> limits = new ConcurrentHashMap<>();
+  private static volatile Predicate<Request> exempt = request -> false;
+  private static boolean disabled = false;
+
+  /**
+   * Limits each client to the given rate of requests on the given route, with short bursts of up to
+   * the given number of requests allowed on top of that. Routes are named by their first path
+   * segment, as in {@link Utils#routeKey(Request)}, so "/buy/" or "/jsrepl/". Calling this again
+   * for the same route replaces its limit (and forgets everybody's buckets).
+   */
+  public static void limit(String route, double requestsPerSecond, int burst) {
+    if (requestsPerSecond <= 0 || burst < 1) {
+      throw new IllegalArgumentException("rate limit must be positive: " + route);
+    }
+    limits.put(route, new Limit(route, requestsPerSecond, burst));
+    Log.iformat(TAG, "%s: %.1f requests/sec, bursts of %d", route, requestsPerSecond, burst);
+  }
+
+  /**
+   * Exempts requests matching the given test from rate limiting, e.g., requests that another
+   * server in a cluster has already rate-limited before forwarding them here, which would otherwise
+   * all count against that one server's address.
+   */
+  public static void exempt(Predicate<Request> test) {
+    exempt = test;
+  }
+
+  /**
+   * Turns rate limiting off, so that {@link #install()} does nothing. A load generator's requests
+   * all come from one address, so otherwise they'd mostly be measuring how fast we say 429.
+   */
+  public static synchronized void disable() {
+    disabled = true;
+  }
+
+  /** Installs the rate-limiting filter into the Spark web server. */
+  public static synchronized void install() {
+    if (disabled) {
+      Log.i(TAG, "rate limits are turned off");
+      return;
+    }
+
+    before(
+        (request, response) -> {
+          var limit = limits.get(routeKey(request));
+          if (limit == null || exempt.test(request)) {
+            return; // nothing to limit
+          }
+          long now = System.nanoTime();
+          var client = Option.of(request.ip()).getOrElse("unknown");
+          long wait = limit.acquire(limit.bucket(client, now), now);
+          if (wait > 0) {
+            limit.rejected.inc();
+            response.header("Retry-After", Long.toString(TimeUnit.NANOSECONDS.toSeconds(wait) + 1));
+            halt(429, "Too many requests.");
+          }
+        });
+  }
+}
@@ -0,0 +1,47 @@
+package edu.xxx.web;
+
+import edu.xxx.codec.Encoder;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import java.util.function.Consumer;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Helpers for answering Spark requests with structured data, encoded however the client prefers:
+ * JSON by default, or CBOR for clients that ask for it with <code>Accept: application/cbor</code>.
+ * For example:
+ *
+ * <pre>
+ * get("/hello/", (request, response) ->
+ *     encoded(request, response, out -> out.beginObject().field("hello", "world").endObject()));
+ * </pre>
+ */
+public interface Responses {
+  /** The encoding the client explicitly asked for, if it asked for one we have. */
+  static Option<String> requestedType(Request request) {
+    return HttpCaching.preferredType(request.headers("Accept"), Encoder.JSON, Encoder.CBOR);
+  }
+
+  /**
+   * Streams a response body, as written by <code>writer</code>, straight to the client, in the
+   * encoding it asked for (see {@link #requestedType}), or JSON if it didn't ask. Set the status
+   * and any other headers before calling this, because the response is committed by the time it
+   * returns. Route lambdas should return the result, which is an empty string, so Spark doesn't
+   * add anything of its own.
+   */
+  static String encoded(Request request, Response response, Consumer<Encoder> writer) {
+    var raw = response.raw();
+    var out = Try.of(raw::getOutputStream).get();
+    var encoder = Encoder.create(requestedType(request).getOrElse(Encoder.JSON), out).get();
+    raw.setContentType(encoder.contentType());
+    raw.setHeader("Vary", "Accept");
+    writer.accept(encoder);
+    encoder.flush();
+
+    // As with StaticAssets, committing the response here keeps Spark from adding a body (or a
+    // layer of gzip) of its own.
+    Try.run(raw::flushBuffer).get();
+    return "";
+  }
+}
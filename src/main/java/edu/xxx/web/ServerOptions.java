@@ -0,0 +1,223 @@
+package edu.xxx.web;
+
+import static spark.Spark.awaitInitialization;
+import static spark.Spark.port;
+import static spark.Spark.threadPool;
+
+import com.beust.jcommander.Parameter;
+import edu.xxx.jfr.Recordings;
+import edu.xxx.util.CommandLine;
+import edu.xxx.util.Log;
+import io.vavr.control.Try;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+
+/**
+ * Command-line options shared by our web servers, parsed with <a
+ * href="http://jcommander.org/">JCommander</a>. Each field below is filled in from the matching
+ * command-line flag, if present, or keeps its default value otherwise.
+ *
+ * <p>A server with options of its own can pass in additional JCommander-annotated objects to {@link
+ * #parse(String, String[], Object...)}, and they'll be filled in from the same command line.
+ */
+public class ServerOptions {
+  private static final String TAG = "ServerOptions";
+
+  // Jetty's QueuedThreadPool defaults: 200 threads at most, 8 at least, idle for 60 seconds.
+  private static final int JETTY_DEFAULT_MAX_THREADS = 200;
+
+  @Parameter(names = "--port", description = "Port for the web server to listen on")
+  public int port = 4567;
+
+  @Parameter(
+      names = "--no-browser",
+      description = "Don't try to open a web browser when the server starts")
+  public boolean noBrowser = false;
+
+  @Parameter(
+      names = "--headless",
+      description = "Run without any desktop integration (sets java.awt.headless)")
+  public boolean headless = false;
+
+  @Parameter(
+      names = "--fast-startup",
+      description = "Start up as quickly as possible: implies --headless, and skips diagnostics")
+  public boolean fastStartup = false;
+
+  @Parameter(
+      names = "--exit-when-ready",
+      description = "Exit as soon as the server is ready (for startup benchmarks and AppCDS)")
+  public boolean exitWhenReady = false;
+
+  @Parameter(
+      names = "--warm-up",
+      description =
+          "Paths (comma-separated) to request from ourselves once ready, before --exit-when-ready")
+  public List<String> warmUpPaths = new ArrayList<>();
+
+  @Parameter(
+      names = "--jfr",
+      description = "Run a continuous Java Flight Recorder recording, dumped to --jfr-file on exit")
+  public boolean jfr = false;
+
+  @Parameter(names = "--jfr-file", description = "Where the flight recording is dumped on exit")
+  public String jfrFile = "server.jfr";
+
+  @Parameter(
+      names = "--log-config",
+      description = "File of per-tag log levels (tag = all/error/nothing), reloaded on changes")
+  @Nullable
+  public String logConfig = null;
+
+  @Parameter(
+      names = "--capture",
+      description = "File to record every request in, for replaying later with TrafficReplay")
+  @Nullable
+  public String capture = null;
+
+  @Parameter(
+      names = "--no-rate-limits",
+      description = "Turn off per-client rate limits, e.g., for a load test from a single machine")
+  public boolean noRateLimits = false;
+
+  @Parameter(
+      names = "--virtual-threads",
+      description = "Handle requests on virtual threads (JDK 21 or later) instead of a thread pool")
+  public boolean virtualThreads = false;
+
+  @Parameter(
+      names = "--threads",
+      description = "Maximum request-handling threads in the thread pool (0 for Jetty's default)")
+  public int maxThreads = 0;
+
+  @Parameter(
+      names = "--min-threads",
+      description = "Minimum idle threads kept in the thread pool (0 for Jetty's default)")
+  public int minThreads = 0;
+
+  @Parameter(
+      names = "--thread-idle-timeout",
+      description = "Milliseconds before an idle pool thread is retired (0 for Jetty's default)")
+  public int threadIdleTimeoutMillis = 0;
+
+  @Parameter(
+      names = {"--help", "-h"},
+      description = "Print this help message and exit",
+      help = true)
+  public boolean help = false;
+
+  /**
+   * Parses the command-line arguments into a new ServerOptions object, along with any other
+   * JCommander-annotated objects you pass in. If the arguments are malformed, or if the user asked
+   * for help, this prints the usage message and exits the program.
+   */
+  public static ServerOptions parse(String programName, String[] args, Object... more) {
+    var options = new ServerOptions();
+    CommandLine.parse(programName, args, options, more);
+    return options;
+  }
+
+  /**
+   * Starts up anything the options ask for that isn't specific to a particular server. This has to
+   * be called before the first Spark route or filter is set up, because that's when Spark starts
+   * its embedded web server, after which it's too late to change how it's configured.
+   */
+  public void apply() {
+    if (headless || fastStartup) {
+      // This has to happen before anything touches AWT, which decides once and for all.
+      System.setProperty("java.awt.headless", "true");
+    }
+    if (!fastStartup) {
+      Log.logSystemProperties();
+    }
+    if (logConfig != null) {
+      Log.watchConfig(Paths.get(logConfig));
+    }
+    if (jfr) {
+      Recordings.startContinuous(Paths.get(jfrFile));
+    }
+    if (noRateLimits) {
+      RateLimiter.disable();
+    }
+    configureThreads();
+    port(port);
+    if (capture != null) {
+      TrafficCapture.install(Paths.get(capture)); // first, so it sees every request
+    }
+  }
+
+  /**
+   * Call this once the server's routes and filters are all set up. It waits for the web server to
+   * finish starting, logs how long that took since the JVM started, sends any <code>--warm-up
+   * </code> requests, and then, if the options say to, exits the program. That's how the AppCDS
+   * training run finds out when startup is over, having first served a few requests, so that the
+   * archive also has the classes it takes to answer them, not just the ones it takes to start.
+   */
+  public void ready() {
+    awaitInitialization();
+    var now = Instant.now();
+    ProcessHandle.current()
+        .info()
+        .startInstant()
+        .map(start -> Duration.between(start, now).toMillis())
+        .ifPresent(millis -> Log.i(TAG, "ready after " + millis + " ms"));
+    warmUpPaths.forEach(this::warmUp);
+    if (exitWhenReady) {
+      System.exit(0);
+    }
+  }
+
+  /** Requests the given path from this server, as a browser would, and logs how that went. */
+  private void warmUp(String path) {
+    var status =
+        Try.of(
+            () -> {
+              var connection =
+                  (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+              connection.setRequestProperty("Accept-Encoding", "gzip");
+              int code = connection.getResponseCode();
+              var body = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+              if (body != null) {
+                try (body) {
+                  body.readAllBytes();
+                }
+              }
+              return code;
+            });
+    Log.i(
+        TAG,
+        "warm-up " + path + ": " + status.map(String::valueOf).getOrElseGet(Throwable::toString));
+  }
+
+  private void configureThreads() {
+    if (virtualThreads) {
+      var pool = VirtualThreadPool.create();
+      if (pool.isDefined()) {
+        Log.i(TAG, "handling requests on virtual threads");
+        EmbeddedServers.add(
+            EmbeddedServers.Identifiers.JETTY,
+            new EmbeddedJettyFactory().withThreadPool(pool.get()));
+        return;
+      }
+      Log.e(TAG, "falling back to the platform thread pool");
+    }
+
+    // Spark only builds a thread pool of its own when it's given a maximum, and otherwise leaves
+    // Jetty to its defaults, ignoring the other two settings, so we fill in Jetty's default
+    // maximum when only those were given. Spark fills in Jetty's defaults for the other two.
+    if (maxThreads > 0 || minThreads > 0 || threadIdleTimeoutMillis > 0) {
+      threadPool(
+          maxThreads > 0 ? maxThreads : JETTY_DEFAULT_MAX_THREADS,
+          minThreads > 0 ? minThreads : -1,
+          threadIdleTimeoutMillis > 0 ? threadIdleTimeoutMillis : -1);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package edu.xxx.web;
+
+import static edu.xxx.web.Utils.routeKey;
+import static spark.Spark.afterAfter;
+import static spark.Spark.before;
+import static spark.Spark.get;
+
+import edu.xxx.metrics.Counter;
+import edu.xxx.metrics.Histogram;
+import edu.xxx.metrics.Metrics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import spark.Request;
+
+/**
+ * Per-route request metrics for a Spark web server: a request counter for each route and status
+ * class (2xx, 4xx, etc.) and a latency histogram for each route, plus a <code>/metrics</code>
+ * endpoint that serves everything in {@link Metrics} in the Prometheus text format.
+ *
+ * <p>Engineering notes: the "before" filter just stamps the request with {@link System#nanoTime()}
+ * and the "afterAfter" filter (which Spark runs even when a handler throws an exception) does one
+ * map lookup and two lock-free updates, so the whole thing costs a small fraction of a microsecond
+ * per request. Routes are grouped by their first path segment (see {@link
+ * Utils#routeKey(Request)}), and we cap the number of distinct routes we'll track, so somebody
+ * probing random URLs can't make our metrics grow without bound.
+ */
+public final class SparkMetrics {
+  private SparkMetrics() {} // this class should never be instantiated
+
+  private static final String START_ATTRIBUTE = "edu.xxx.web.SparkMetrics.start";
+  private static final String OTHER_ROUTE = "other";
+  private static final int MAX_ROUTES = 64;
+
+  /** Everything we track about one route, looked up once per request. */
+  private static final class RouteMetrics {
+    final Histogram latency;
+    final Counter[] byStatusClass = new Counter[6]; // 0 is for anything out of the normal range
+
+    RouteMetrics(String route) {
+      latency =
+          Metrics.histogram(
+              "http_request_duration_seconds", "Request latency by route.", "route", route);
+      for (int i = 0; i < byStatusClass.length; i++) {
+        byStatusClass[i] =
+            Metrics.counter(
+                "http_requests_total",
+                "Requests served, by route and status class.",
+                "route",
+                route,
+                "status",
+                i == 0 ? "other" : i + "xx");
+      }
+    }
+  }
+
+  private static final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+  private static RouteMetrics routeMetrics(Request request) {
+    var route = routeKey(request);
+    var result = routes.get(route);
+    if (result != null) {
+      return result;
+    }
+    if (routes.size() >= MAX_ROUTES) {
+      route = OTHER_ROUTE;
+    }
+    return routes.computeIfAbsent(route, RouteMetrics::new);
+  }
+
+  /**
+   * Installs the metrics filters and the <code>/metrics</code> endpoint into the Spark web server.
+   */
+  public static void install() {
+    before((request, response) -> request.attribute(START_ATTRIBUTE, System.nanoTime()));
+
+    afterAfter(
+        (request, response) -> {
+          Long start = request.attribute(START_ATTRIBUTE);
+          if (start == null) {
+            return; // didn't go through our "before" filter, so there's nothing to measure
+          }
+          var metrics = routeMetrics(request);
+          metrics.latency.record(System.nanoTime() - start);
+          int statusClass = response.raw().getStatus() / 100;
+          metrics.byStatusClass[statusClass >= 1 && statusClass <= 5 ? statusClass : 0].inc();
+        });
+
+    get(
+        "/metrics",
+        (request, response) -> {
+          response.status(200); // okay!
+          response.type("text/plain; version=0.0.4; charset=utf-8");
+          response.header("cache-control", "no-cache"); // because we're regenerating it every time
+          return Metrics.renderPrometheus();
+        });
+  }
+}
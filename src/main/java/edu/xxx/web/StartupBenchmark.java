@@ -0,0 +1,175 @@
+package edu.xxx.web;
+
+import com.beust.jcommander.Parameter;
+import edu.xxx.util.CommandLine;
+import io.vavr.control.Option;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Measures how long a server takes from launching its JVM until it answers its first request, in
+ * a few different configurations: the usual settings, <code>--fast-startup</code>, and
+ * <code>--fast-startup</code> plus an AppCDS archive, if you've built one. Each configuration is
+ * started a number of times, in its own fresh JVM each time, and we print the fastest, median, and
+ * slowest times. The Gradle task sets everything up:
+ *
+ * <pre>
+ * ./gradlew runStartupBenchmark
+ * </pre>
+ *
+ * <p>Engineering notes: we time from just before starting the process until the first HTTP
+ * response of any kind comes back, polling every few milliseconds, since that's what matters when
+ * a node is restarted during a deploy: how soon it can take traffic. Output from the servers
+ * themselves is thrown away, so it doesn't slow them down or clutter the results.
+ */
+public class StartupBenchmark {
+  /** Command-line options for the startup benchmark. */
+  static class Options {
+    @Parameter(names = "--main", description = "Main class of the server to start")
+    String mainClass = "edu.xxx.market.MarketServer";
+
+    @Parameter(
+        names = "--classpath",
+        description = "Class path for the server (default: our own; must match the AppCDS archive)")
+    @Nullable
+    String classpath = null;
+
+    @Parameter(names = "--cds-archive", description = "AppCDS archive for the server, if any")
+    @Nullable
+    String cdsArchive = null;
+
+    @Parameter(
+        names = "--jvm-args",
+        description = "Extra JVM arguments for every run, as one string")
+    String jvmArgs = "";
+
+    @Parameter(names = "--port", description = "Port for the server under test")
+    int port = 4599;
+
+    @Parameter(names = "--probe", description = "Path to request until the server answers")
+    String probe = "/price/?index=0";
+
+    @Parameter(names = "--runs", description = "How many times to start each configuration")
+    int runs = 10;
+
+    @Parameter(
+        names = {"--help", "-h"},
+        description = "Print this help message and exit",
+        help = true)
+    boolean help = false;
+  }
+
+  private static final Duration GIVE_UP = Duration.ofSeconds(60);
+  private static final long POLL_MILLIS = 5;
+
+  private final Options options;
+  private final String classpath;
+  private final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+  private final HttpClient client =
+      HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_1_1)
+          .connectTimeout(Duration.ofSeconds(1))
+          .build();
+
+  private StartupBenchmark(Options options) {
+    this.options = options;
+    this.classpath =
+        Option.of(options.classpath).getOrElse(() -> System.getProperty("java.class.path"));
+  }
+
+  private static List<String> split(String args) {
+    return args.isBlank() ? List.of() : Arrays.asList(args.trim().split("\\s+"));
+  }
+
+  /** Starts the server once, and returns how long it took to answer, in nanoseconds. */
+  private long timeOneStart(List<String> jvmArgs, List<String> serverArgs)
+      throws IOException, InterruptedException {
+    var command = new ArrayList<String>();
+    command.add(java);
+    command.addAll(split(options.jvmArgs));
+    command.addAll(jvmArgs);
+    command.add("-cp");
+    command.add(classpath);
+    command.add(options.mainClass);
+    command.addAll(List.of("--port", Integer.toString(options.port), "--no-browser"));
+    command.addAll(serverArgs);
+
+    var probe =
+        HttpRequest.newBuilder(URI.create("http://localhost:" + options.port + options.probe))
+            .timeout(Duration.ofSeconds(1))
+            .build();
+
+    long start = System.nanoTime();
+    var process =
+        new ProcessBuilder(command)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+    try {
+      while (System.nanoTime() - start < GIVE_UP.toNanos()) {
+        if (!process.isAlive()) {
+          throw new IOException("server exited with status " + process.exitValue());
+        }
+        try {
+          client.send(probe, HttpResponse.BodyHandlers.discarding());
+          return System.nanoTime() - start;
+        } catch (IOException ex) {
+          Thread.sleep(POLL_MILLIS); // not listening yet
+        }
+      }
+      throw new IOException("server didn't answer within " + GIVE_UP);
+    } finally {
+      process.destroy();
+      if (!process.waitFor(10, TimeUnit.SECONDS)) {
+        process.destroyForcibly().waitFor();
+      }
+    }
+  }
+
+  /** Starts the server repeatedly in one configuration, and prints the results. */
+  private void measure(String label, List<String> jvmArgs, List<String> serverArgs)
+      throws IOException, InterruptedException {
+    timeOneStart(jvmArgs, serverArgs); // once to warm up the disk cache, not counted
+
+    var times = new long[options.runs];
+    for (int i = 0; i < times.length; i++) {
+      times[i] = timeOneStart(jvmArgs, serverArgs);
+    }
+    Arrays.sort(times);
+    System.out.printf(
+        "%-20s min %7.1f ms   median %7.1f ms   max %7.1f ms%n",
+        label, times[0] / 1e6, times[times.length / 2] / 1e6, times[times.length - 1] / 1e6);
+  }
+
+  /** Main method: run with --help to see the options. */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    var options = new Options();
+    CommandLine.parse("StartupBenchmark", args, options);
+
+    var benchmark = new StartupBenchmark(options);
+    System.out.println("Time from JVM launch until " + options.probe + " answers:");
+    benchmark.measure("default", List.of(), List.of());
+    benchmark.measure("fast-startup", List.of(), List.of("--fast-startup"));
+    if (options.cdsArchive != null) {
+      if (Files.exists(Paths.get(options.cdsArchive))) {
+        benchmark.measure(
+            "fast-startup + CDS",
+            List.of("-XX:SharedArchiveFile=" + options.cdsArchive, "-Xshare:auto"),
+            List.of("--fast-startup"));
+      } else {
+        System.out.println("No AppCDS archive at " + options.cdsArchive + "; skipping that one.");
+      }
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package edu.xxx.web;
+
+import static spark.Spark.before;
+import static spark.Spark.halt;
+
+import edu.xxx.util.Log;
+import io.vavr.control.Try;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+import spark.Request;
+import spark.Response;
+
+/**
+ * A replacement for Spark's <code>staticFileLocation()</code> that loads every static file into
+ * memory when the server starts, and then serves them with caching headers that let browsers
+ * avoid downloading them again.
+ *
+ * <p>Engineering notes: each file is read once, and text files (HTML, CSS, JavaScript) are also
+ * gzip-compressed once, so every later request is just a byte-array copy, with no classpath lookup
+ * and no compression work. Each file gets an ETag computed from a hash of its contents, so a
+ * browser that already has the file can ask "has it changed?" and get back a tiny 304 response.
+ * Files whose path has a version number in it (like <code>jquery-3.3.1.min.js</code> or anything
+ * under <code>mui-0.6.0/</code>) can never change without their URL changing, so we tell browsers
+ * to cache those for a year without even asking. Everything else (like <code>market.js</code>,
+ * which you might be editing) must be revalidated on each use, which the ETags make cheap.
+ *
+ * <p>The JDK doesn't come with a Brotli compressor, so we only precompress with gzip.
+ */
+public final class StaticAssets {
+  private StaticAssets() {} // this class should never be instantiated
+
+  private static final String TAG = "StaticAssets";
+  private static final Pattern VERSIONED = Pattern.compile("\\d+\\.\\d+\\.\\d+");
+  private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+  private static final String REVALIDATE = "no-cache";
+
+  private static final Map<String, String> CONTENT_TYPES =
+      Map.ofEntries(
+          Map.entry("html", "text/html; charset=utf-8"),
+          Map.entry("css", "text/css; charset=utf-8"),
+          Map.entry("js", "application/javascript; charset=utf-8"),
+          Map.entry("json", "application/json; charset=utf-8"),
+          Map.entry("txt", "text/plain; charset=utf-8"),
+          Map.entry("svg", "image/svg+xml"),
+          Map.entry("jpg", "image/jpeg"),
+          Map.entry("jpeg", "image/jpeg"),
+          Map.entry("png", "image/png"),
+          Map.entry("gif", "image/gif"),
+          Map.entry("ico", "image/x-icon"));
+  private static final String DEFAULT_CONTENT_TYPE = "text/plain; charset=utf-8";
+
+  /** One static file, ready to be served. */
+  private static final class Asset {
+    final byte[] identity;
+    @Nullable final byte[] gzip;
+    final String etag;
+    final String gzipEtag;
+    final String contentType;
+    final String cacheControl;
+
+    Asset(String path, byte[] identity) {
+      this.identity = identity;
+      this.contentType = contentType(path);
+      this.gzip = compressible(contentType) ? smallerGzip(identity) : null;
+      this.etag = etag(identity);
+      this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gz\"";
+      this.cacheControl = VERSIONED.matcher(path).find() ? IMMUTABLE : REVALIDATE;
+    }
+  }
+
+  private static Map<String, Asset> assets = Map.of();
+
+  private static String contentType(String path) {
+    int dot = path.lastIndexOf('.');
+    return dot < 0
+        ? DEFAULT_CONTENT_TYPE
+        : CONTENT_TYPES.getOrDefault(path.substring(dot + 1).toLowerCase(), DEFAULT_CONTENT_TYPE);
+  }
+
+  private static boolean compressible(String contentType) {
+    return contentType.startsWith("text/")
+        || contentType.startsWith("application/")
+        || contentType.startsWith("image/svg");
+  }
+
+  /** Gzips the bytes, but only hangs onto the result if it's actually smaller. */
+  @Nullable
+  private static byte[] smallerGzip(byte[] bytes) {
+    var out = new ByteArrayOutputStream(bytes.length / 2);
+    try (var gzip = new GZIPOutputStream(out)) {
+      gzip.write(bytes);
+    } catch (IOException ex) {
+      return null; // can't happen with a ByteArrayOutputStream, but if it does, serve uncompressed
+    }
+    return out.size() < bytes.length ? out.toByteArray() : null;
+  }
+
+  /** A strong ETag, including the quotes, derived from a hash of the contents. */
+  private static String etag(byte[] bytes) {
+    var digest = Try.of(() -> MessageDigest.getInstance("SHA-256")).get().digest(bytes);
+    var hash = Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 12));
+    return "\"" + hash + "\"";
+  }
+
+  /**
+   * Reads every file under the given classpath folder, whether the classpath is a directory on
+   * disk (running from the IDE or Gradle) or a jar file, keyed by the URL path we'll serve it at.
+   */
+  private static Map<String, Asset> load(String folder) throws Exception {
+    var url = StaticAssets.class.getResource(folder);
+    if (url == null) {
+      Log.e(TAG, "static file folder not found on the classpath: " + folder);
+      return Map.of();
+    }
+    URI uri = url.toURI();
+    if (!"jar".equals(uri.getScheme())) {
+      return loadTree(Paths.get(uri));
+    }
+    try {
+      try (var fs = FileSystems.newFileSystem(uri, Map.of())) {
+        return loadTree(fs.getPath(folder));
+      }
+    } catch (FileSystemAlreadyExistsException ex) {
+      return loadTree(FileSystems.getFileSystem(uri).getPath(folder));
+    }
+  }
+
+  private static Map<String, Asset> loadTree(Path root) throws IOException {
+    var result = new HashMap<String, Asset>();
+    try (var files = Files.walk(root)) {
+      for (var file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        var separator = file.getFileSystem().getSeparator();
+        var urlPath = "/" + root.relativize(file).toString().replace(separator, "/");
+        result.put(urlPath, new Asset(urlPath, Files.readAllBytes(file)));
+      }
+    }
+    return result;
+  }
+
+  /** Sends the asset, or just a 304 if the browser already has it, and returns the status. */
+  private static int serve(Asset asset, Request request, Response response) throws IOException {
+    var useGzip =
+        asset.gzip != null
+            && HttpCaching.acceptsEncoding(request.headers("Accept-Encoding"), "gzip");
+
+    var raw = response.raw();
+    raw.setHeader("ETag", useGzip ? asset.gzipEtag : asset.etag);
+    raw.setHeader("Cache-Control", asset.cacheControl);
+    if (asset.gzip != null) {
+      raw.setHeader("Vary", "Accept-Encoding");
+    }
+
+    int status;
+    if (HttpCaching.etagMatches(request.headers("If-None-Match"), asset.etag, asset.gzipEtag)) {
+      status = 304; // not modified: the browser's copy is still good
+      raw.setStatus(status);
+    } else {
+      var body = useGzip ? asset.gzip : asset.identity;
+      status = 200; // okay!
+      raw.setStatus(status);
+      raw.setContentType(asset.contentType);
+      raw.setContentLength(body.length);
+      if (useGzip) {
+        raw.setHeader("Content-Encoding", "gzip");
+      }
+      if (!"HEAD".equals(request.requestMethod())) {
+        raw.getOutputStream().write(body);
+      }
+    }
+
+    // Committing the response here means Spark won't try to add a body (or a second layer of gzip)
+    // of its own when we halt.
+    raw.flushBuffer();
+    return status;
+  }
+
+  /**
+   * Loads all the files under the given classpath folder (e.g., "/WebPublic") and installs a Spark
+   * filter that serves them. Use this instead of <code>staticFileLocation()</code>, and install it
+   * before any {@link RateLimiter} or {@link AdmissionControl}, which group requests by their first
+   * path segment, so that a page's files don't count against the limits for the page itself.
+   */
+  public static void install(String folder) {
+    long start = System.nanoTime();
+    assets =
+        Try.of(() -> load(folder))
+            .onFailure(err -> Log.e(TAG, "failed to load static files from " + folder, err))
+            .getOrElse(Map.of());
+    Log.iformat(
+        TAG,
+        "loaded %d static files from %s in %.1f ms",
+        assets.size(),
+        folder,
+        (System.nanoTime() - start) / 1e6);
+
+    before(
+        (request, response) -> {
+          var method = request.requestMethod();
+          var path = request.pathInfo();
+          if (path == null || (!"GET".equals(method) && !"HEAD".equals(method))) {
+            return;
+          }
+          var asset = assets.get(path);
+          if (asset != null) {
+            // Skip the routes; we're done here. Spark sets the response's status again when we
+            // halt, even though it's already been sent, and the filters that run after this one
+            // (metrics, for instance) read it back, so we have to halt with the same status.
+            halt(serve(asset, request, response));
+          }
+        });
+  }
+}
@@ -0,0 +1,149 @@
+package edu.xxx.web;
+
+import static spark.Spark.afterAfter;
+import static spark.Spark.before;
+
+import edu.xxx.metrics.Counter;
+import edu.xxx.metrics.Metrics;
+import edu.xxx.util.Log;
+import io.vavr.control.Option;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every request the Spark web server handles (method, path and query string, status, and
+ * timing) into a capture file, which {@link TrafficReplay} can later play back against another
+ * server, turning real traffic, with all its bursts and quirks, into a repeatable performance test.
+ * Start a server with <code>--capture traffic.cap</code> to use it.
+ *
+ * <p>Engineering notes: the request threads never touch the file. The "afterAfter" filter just puts
+ * a small record on a bounded queue, and a background thread takes records off the queue and
+ * writes them out in the compact format described in {@link CaptureFile}, through a buffer. If the
+ * writer ever falls so far behind that the queue fills up, we drop records (and count them, in
+ * <code>capture_dropped_total</code>) rather than slow down the server. Request bodies aren't
+ * captured; our routes take their parameters in the query string.
+ *
+ * <p>Some of those query strings and paths are secrets, like the key that <code>/jseval/</code>
+ * takes and the launch code in <code>/jsrepl/</code>, so we don't capture those routes at all, nor
+ * <code>/admin/</code>, which only answers local requests anyway and isn't the traffic we want to
+ * replay. What we do capture still has account names in it, so only the file's owner can read it.
+ */
+public final class TrafficCapture {
+  private TrafficCapture() {} // this class should never be instantiated
+
+  private static final String TAG = "TrafficCapture";
+  private static final String START_ATTRIBUTE = "edu.xxx.web.TrafficCapture.start";
+  private static final int QUEUE_SIZE = 1 << 16;
+  private static final List<String> UNCAPTURED = List.of("/admin/", "/jseval/", "/jsrepl/");
+
+  private static final BlockingQueue<CaptureFile.Record> queue =
+      new ArrayBlockingQueue<>(QUEUE_SIZE);
+  private static boolean installed = false;
+  private static volatile boolean stopping = false;
+
+  /** Takes records off the queue and writes them, until the program exits. */
+  private static void writeAll(CaptureFile.Writer writer) {
+    try (writer) {
+      while (!stopping || !queue.isEmpty()) {
+        var record = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (record != null) {
+          writer.write(record);
+        } else {
+          writer.flush(); // nothing to do for a moment, so catch up
+        }
+      }
+    } catch (IOException | InterruptedException ex) {
+      Log.e(TAG, "Capture stopped", ex);
+    }
+  }
+
+  /** Creates the capture file, replacing any old one, for the owner's eyes only if we can. */
+  private static OutputStream create(Path file) throws IOException {
+    // Permissions only apply to a new file, so an old one, with whatever it had, has to go first.
+    Files.deleteIfExists(file);
+    try {
+      Files.createFile(
+          file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    } catch (UnsupportedOperationException ex) {
+      Files.createFile(file); // not a POSIX file system, so it gets the usual permissions
+    }
+    return Files.newOutputStream(file);
+  }
+
+  /**
+   * Installs the capture filters into the Spark web server, writing to the given file, which is
+   * replaced if it already exists.
+   */
+  public static synchronized void install(Path file) {
+    if (installed) {
+      return; // a second capture would start by deleting the file the first one is writing
+    }
+    installed = true;
+
+    CaptureFile.Writer writer;
+    try {
+      writer = new CaptureFile.Writer(create(file), System.currentTimeMillis());
+    } catch (IOException ex) {
+      Log.e(TAG, "Can't capture traffic to " + file, ex);
+      return;
+    }
+    Log.i(TAG, "Capturing traffic to " + file);
+
+    long captureStart = System.nanoTime();
+    Counter captured =
+        Metrics.counter("capture_requests_total", "Requests recorded by the traffic capture.");
+    Counter dropped =
+        Metrics.counter(
+            "capture_dropped_total", "Requests not recorded because the capture fell behind.");
+
+    var thread = new Thread(() -> writeAll(writer), "traffic-capture");
+    thread.setDaemon(true);
+    thread.start();
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  stopping = true;
+                  try {
+                    thread.join(TimeUnit.SECONDS.toMillis(5));
+                  } catch (InterruptedException ex) {
+                    // exiting anyway
+                  }
+                }));
+
+    before(
+        (request, response) -> {
+          var path = Option.of(request.pathInfo()).getOrElse("/");
+          if (UNCAPTURED.stream().noneMatch(path::startsWith)) {
+            request.attribute(START_ATTRIBUTE, System.nanoTime());
+          }
+        });
+
+    afterAfter(
+        (request, response) -> {
+          Long start = request.attribute(START_ATTRIBUTE);
+          if (start == null) {
+            return;
+          }
+          long end = System.nanoTime();
+          var target =
+              Option.of(request.pathInfo()).getOrElse("/")
+                  + Option.of(request.queryString()).map(query -> "?" + query).getOrElse("");
+          var record =
+              new CaptureFile.Record(
+                  TimeUnit.NANOSECONDS.toMicros(start - captureStart),
+                  request.requestMethod(),
+                  target,
+                  response.raw().getStatus(),
+                  TimeUnit.NANOSECONDS.toMicros(end - start));
+          (queue.offer(record) ? captured : dropped).inc();
+        });
+  }
+}
@@ -0,0 +1,287 @@
+package edu.xxx.web;
+
+import com.beust.jcommander.Parameter;
+import edu.xxx.metrics.Counter;
+import edu.xxx.metrics.Histogram;
+import edu.xxx.metrics.Metrics;
+import edu.xxx.util.CommandLine;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+
+/**
+ * Plays back traffic recorded by {@link TrafficCapture} against a server, at the same pace as the
+ * original, or faster, and prints the throughput and latency percentiles, overall and per route.
+ * Save the results from one build, and compare the next build against them:
+ *
+ * <pre>
+ * ./gradlew runMarketServer --args='--capture traffic.cap'       (then use it for a while)
+ * ./gradlew runTrafficReplay --args='--capture traffic.cap --speed 4 --save before.properties'
+ * ./gradlew runTrafficReplay --args='--capture traffic.cap --speed 4 --compare before.properties'
+ * </pre>
+ *
+ * <p>Engineering notes: unlike the {@link LoadGenerator}, which is closed-loop (each client waits
+ * for an answer before sending its next request), a replay is open-loop: every request goes out at
+ * its scheduled time, whether or not earlier ones have been answered, just as real users don't
+ * wait for each other. Latency is measured from that scheduled time, not from when the request
+ * actually went out, so if the replay itself falls behind because the server is slow, that counts
+ * against the server, which is where it belongs (this avoids what Gil Tene calls "coordinated
+ * omission"). We also count answers whose status differs from the captured one, which is often
+ * the first sign that a replay isn't exercising what you think it is.
+ */
+public class TrafficReplay {
+  /** Command-line options for the replay. */
+  static class Options {
+    @Parameter(names = "--capture", description = "Capture file to replay", required = true)
+    String capture = "";
+
+    @Parameter(names = "--base-url", description = "Server to send the requests to")
+    String baseUrl = "http://localhost:4567";
+
+    @Parameter(
+        names = "--speed",
+        description = "How many times faster than the original to replay (e.g., 1, 2, 10)")
+    double speed = 1.0;
+
+    @Parameter(names = "--label", description = "Label to print alongside the results")
+    String label = "replay";
+
+    @Parameter(names = "--save", description = "Properties file to save the results in")
+    @Nullable
+    String save = null;
+
+    @Parameter(names = "--compare", description = "Results saved earlier, to compare against")
+    @Nullable
+    String compare = null;
+
+    @Parameter(
+        names = {"--help", "-h"},
+        description = "Print this help message and exit",
+        help = true)
+    boolean help = false;
+  }
+
+  private static final String ALL_ROUTES = "all";
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p99.9"};
+
+  private final Options options;
+  private final HttpClient client;
+  private final Map<String, Histogram> latencyByRoute = new TreeMap<>();
+  private final Counter errors =
+      Metrics.counter("replay_errors_total", "Replayed requests that failed outright.");
+  private final Counter mismatches =
+      Metrics.counter(
+          "replay_status_mismatches_total", "Replayed requests answered with a different status.");
+
+  private TrafficReplay(Options options) {
+    this.options = options;
+    client =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(
+                Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    runnable -> {
+                      // Daemon threads, so nothing going wrong can leave the replay hanging.
+                      var thread = new Thread(runnable, "replay-client");
+                      thread.setDaemon(true);
+                      return thread;
+                    }))
+            .build();
+  }
+
+  private Histogram latency(String route) {
+    return latencyByRoute.computeIfAbsent(
+        route,
+        key ->
+            Metrics.histogram(
+                "replay_request_duration_seconds", "Replayed request latency.", "route", key));
+  }
+
+  /** Sends every request at its time, waits for the answers, and returns the elapsed nanos. */
+  private long replay(List<CaptureFile.Record> records) throws InterruptedException {
+    var all = latency(ALL_ROUTES);
+    var finished = new CountDownLatch(records.size());
+    long firstMicros = records.get(0).startMicros;
+    long start = System.nanoTime();
+    for (var record : records) {
+      long offset = TimeUnit.MICROSECONDS.toNanos(record.startMicros - firstMicros);
+      long due = start + (long) (offset / options.speed);
+      long wait = due - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+
+      var routeLatency = latency(Utils.routeKey(record.target));
+      HttpRequest request;
+      try {
+        request =
+            HttpRequest.newBuilder(URI.create(options.baseUrl + record.target))
+                .method(record.method, HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(30))
+                .build();
+      } catch (IllegalArgumentException ex) {
+        // Jetty takes some targets (like a raw "|" in a query string) that URI won't, and some
+        // methods HttpClient won't send, so a real capture can have requests we can't replay.
+        errors.inc();
+        finished.countDown();
+        continue;
+      }
+      client
+          .sendAsync(request, HttpResponse.BodyHandlers.discarding())
+          .whenComplete(
+              (response, err) -> {
+                if (err != null) {
+                  errors.inc();
+                } else {
+                  long nanos = System.nanoTime() - due;
+                  all.record(nanos);
+                  routeLatency.record(nanos);
+                  if (response.statusCode() != record.status) {
+                    mismatches.inc();
+                  }
+                }
+                finished.countDown();
+              });
+    }
+    finished.await();
+    return System.nanoTime() - start;
+  }
+
+  /** The results, as saved by --save and read back by --compare. */
+  private Properties results(long elapsedNanos) {
+    var result = new Properties();
+    long requests = latencyByRoute.get(ALL_ROUTES).count();
+    result.setProperty("throughput", Double.toString(requests / (elapsedNanos / 1e9)));
+    result.setProperty("errors", Long.toString(errors.get()));
+    result.setProperty("mismatches", Long.toString(mismatches.get()));
+    latencyByRoute.forEach(
+        (route, h) -> {
+          result.setProperty(route + ".count", Long.toString(h.count()));
+          for (int i = 0; i < QUANTILES.length; i++) {
+            result.setProperty(
+                route + "." + QUANTILE_NAMES[i], Long.toString(h.quantileNanos(QUANTILES[i])));
+          }
+          result.setProperty(route + ".max", Long.toString(h.maxNanos()));
+        });
+    return result;
+  }
+
+  private static String millis(long nanos) {
+    return String.format("%.3f ms", nanos / 1e6);
+  }
+
+  /** Prints a result, and how it differs from the baseline, if there is one. */
+  private static void printDelta(
+      String label, String key, Properties results, @Nullable Properties baseline, boolean nanos) {
+    var value = Double.parseDouble(results.getProperty(key, "0"));
+    var text = nanos ? millis((long) value) : String.format("%.1f", value);
+    if (baseline == null || baseline.getProperty(key) == null) {
+      System.out.printf("%s: %-28s %12s%n", label, key, text);
+      return;
+    }
+    var before = Double.parseDouble(baseline.getProperty(key));
+    var beforeText = nanos ? millis((long) before) : String.format("%.1f", before);
+    var change = before == 0 ? "" : String.format("%+.1f%%", 100 * (value - before) / before);
+    System.out.printf("%s: %-28s %12s   was %12s   %s%n", label, key, text, beforeText, change);
+  }
+
+  private static Properties load(Path file) throws IOException {
+    var result = new Properties();
+    try (Reader in = Files.newBufferedReader(file)) {
+      result.load(in);
+    }
+    return result;
+  }
+
+  /** Main method: run with --help to see the options. */
+  public static void main(String[] args) throws InterruptedException, IOException {
+    var options = new Options();
+    CommandLine.parse("TrafficReplay", args, options);
+    if (!(options.speed > 0)) {
+      System.err.println("--speed must be more than zero");
+      System.exit(1);
+    }
+
+    var records =
+        CaptureFile.read(Path.of(options.capture)).get().stream()
+            .sorted(Comparator.comparingLong(record -> record.startMicros))
+            .collect(Collectors.toList());
+    if (records.isEmpty()) {
+      System.err.println(options.capture + " has no requests in it");
+      System.exit(1);
+    }
+    var baseline = options.compare == null ? null : load(Path.of(options.compare));
+
+    // How the original server did, from the server's side, for reference.
+    SortedMap<String, Histogram> captured = new TreeMap<>();
+    for (var record : records) {
+      captured
+          .computeIfAbsent(
+              Utils.routeKey(record.target),
+              route ->
+                  Metrics.histogram(
+                      "replay_captured_duration_seconds",
+                      "Server-side latency in the capture.",
+                      "route",
+                      route))
+          .record(TimeUnit.MICROSECONDS.toNanos(record.durationMicros));
+    }
+    long spanMicros = records.get(records.size() - 1).startMicros - records.get(0).startMicros;
+    System.out.printf(
+        "%s: replaying %d requests from %.1f s of traffic at %.1fx against %s%n",
+        options.label, records.size(), spanMicros / 1e6, options.speed, options.baseUrl);
+    captured.forEach(
+        (route, h) ->
+            System.out.printf(
+                "%s: captured %-16s %8d requests, server-side p50 %s, p99 %s%n",
+                options.label,
+                route,
+                h.count(),
+                millis(h.quantileNanos(0.5)),
+                millis(h.quantileNanos(0.99))));
+
+    var replay = new TrafficReplay(options);
+    long elapsed = replay.replay(records);
+    var results = replay.results(elapsed);
+
+    System.out.printf(
+        "%s: %d requests in %.1f s%n", options.label, records.size(), elapsed / 1e9);
+    printDelta(options.label, "throughput", results, baseline, false);
+    printDelta(options.label, "errors", results, baseline, false);
+    printDelta(options.label, "mismatches", results, baseline, false);
+    for (var route : replay.latencyByRoute.keySet()) {
+      for (var name : QUANTILE_NAMES) {
+        printDelta(options.label, route + "." + name, results, baseline, true);
+      }
+      printDelta(options.label, route + ".max", results, baseline, true);
+    }
+
+    if (options.save != null) {
+      try (Writer out = Files.newBufferedWriter(Path.of(options.save))) {
+        results.store(out, "TrafficReplay results: " + options.label);
+      }
+    }
+    System.exit(0); // the HttpClient's threads would otherwise keep us alive
+  }
+}
@@ -17,13 +17,15 @@ import static j2html.TagCreator.title;
 import static spark.Spark.exception;
 import static spark.Spark.notFound;
 
+import edu.xxx.metrics.Metrics;
 import edu.xxx.util.Log;
 import io.vavr.collection.HashMap;
 import io.vavr.collection.List;
+import io.vavr.control.Option;
 import io.vavr.control.Try;
 import j2html.tags.ContainerTag;
+import java.net.InetAddress;
 import java.security.SecureRandom;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import spark.Request;
 
@@ -32,12 +34,17 @@ public interface Utils {
   /**
    * Given a URL, tries to launch the real web browser to load that URL. If it fails, this fact is
    * logged, but it's best to treat this command as unreliable. It might work, it might fail. It
-   * might log that failure, it might not.
+   * might log that failure, it might not. On a headless machine (or when the program was started
+   * with <code>-Djava.awt.headless=true</code>), it doesn't even try.
    */
   static void launchBrowser(String url) {
     // if the remote launch fails, this will at least leave a clickable url in the log
     Log.i("SERVER URL", url);
 
+    // Checking the property first avoids loading any AWT classes just to find out we're headless.
+    if (Boolean.getBoolean("java.awt.headless") || java.awt.GraphicsEnvironment.isHeadless()) {
+      return;
+    }
     Try.run(() -> java.awt.Desktop.getDesktop().browse(java.net.URI.create(url)))
         .onFailure(err -> Log.e("Utils.launchBrowser", "failed to launch: " + url, err));
   }
@@ -147,6 +154,35 @@ public interface Utils {
         .toString();
   }
 
+  /**
+   * Reduces a request's path to its first segment, so <code>/price/</code> stays as it is, while
+   * <code>/jsrepl/12345</code> and <code>/market/market.css</code> become <code>/jsrepl/</code> and
+   * <code>/market/</code>. Handy when you want to group requests by route, without ending up with a
+   * separate bucket for every distinct URL that anybody ever typed.
+   */
+  static String routeKey(Request request) {
+    return routeKey(Option.of(request.pathInfo()).getOrElse("/"));
+  }
+
+  /** The same as {@link #routeKey(Request)}, for a path (and maybe a query string) by itself. */
+  static String routeKey(String path) {
+    int query = path.indexOf('?');
+    var bare = query < 0 ? path : path.substring(0, query);
+    int end = bare.indexOf('/', 1);
+    return end < 0 ? bare : bare.substring(0, end + 1);
+  }
+
+  /**
+   * Did this request come from the same machine? Handy for admin endpoints that nobody else should
+   * use. (IP literals never need a DNS lookup, so this is quick.)
+   */
+  static boolean isLocalRequest(Request request) {
+    return Option.of(request.ip())
+        .flatMap(ip -> Try.of(() -> InetAddress.getByName(ip)).toOption())
+        .map(InetAddress::isLoopbackAddress)
+        .getOrElse(false);
+  }
+
   /**
    * Every hit on a Spark web server gives the lambda two arguments: a "request" and a "response".
    * The Request has lots of stuff in it. This will use the standard edu.xxx.util.Log
@@ -172,9 +208,14 @@ public interface Utils {
    * @see Log#e(String, Object)
    */
   static void jsonSparkExceptionHandler(String tag) {
+    var exceptions =
+        Metrics.counter(
+            "http_exceptions_total", "Exceptions thrown by Spark web lambdas.", "tag", tag);
+
     exception(
         Exception.class,
         (e, request, response) -> {
+          exceptions.inc();
           response.status(404);
           Log.e(tag, "Spark web lambda failed!", e);
 
@@ -183,23 +224,29 @@ public interface Utils {
           // numbers from Java). Not that anybody on the browser side
           // is necessarily going to have any use for this, but it
           // might be helpful if you're looking in a browser debugger.
+          // (Or CBOR, if that's what the client asked for.) The body
+          // we set is empty, since it's already been sent, but setting
+          // it tells Spark that this request has been taken care of.
 
           response.body(
-              new JSONObject()
-                      .put(
-                          "exception-stack-trace",
-                          new JSONArray()
-                              .put(List.of(e.getStackTrace())))
-                      .put("exception-description", e.toString())
-                  .toString());
+              Responses.encoded(
+                  request,
+                  response,
+                  out -> {
+                    out.beginObject().key("exception-stack-trace").beginArray();
+                    for (var frame : e.getStackTrace()) {
+                      out.value(frame.toString());
+                    }
+                    out.endArray().field("exception-description", e.toString()).endObject();
+                  }));
         });
 
     // might as well use this excuse to put in a handler for requests that we don't understand
     notFound(
         (req, res) -> {
           logSparkRequest("Utils.notFound", req);
-          res.type("application/json");
-          return new JSONObject().put("message", "404 not found").toString();
+          return Responses.encoded(
+              req, res, out -> out.beginObject().field("message", "404 not found").endObject());
         });
   }
 
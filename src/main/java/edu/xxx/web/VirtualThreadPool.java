@@ -0,0 +1,95 @@
+package edu.xxx.web;
+
+import edu.xxx.util.Log;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * A Jetty {@link ThreadPool} that runs every task on its own virtual thread, rather than handing it
+ * to one of a fixed number of platform threads. A request handler that blocks (say, in a long
+ * JavaScript evaluation, or waiting on another server) then ties up a few hundred bytes of heap
+ * instead of a whole operating-system thread, so one server can have many thousands of slow
+ * clients in flight at once.
+ *
+ * <p>Engineering notes: virtual threads arrived in JDK 21, but this project is compiled for Java
+ * 11, so we can't mention {@code Executors.newVirtualThreadPerTaskExecutor()} directly. Instead, we
+ * look it up by reflection, and {@link #create()} gives you {@link Option#none()} when running on
+ * an older JVM, so the caller can fall back to Jetty's usual thread pool.
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+  private static final String TAG = "VirtualThreadPool";
+
+  private final ExecutorService executor;
+  private final AtomicInteger activeThreads = new AtomicInteger();
+
+  private VirtualThreadPool(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /** Makes a new virtual thread pool, if the running JVM supports virtual threads. */
+  public static Option<VirtualThreadPool> create() {
+    return Try.of(
+            () ->
+                (ExecutorService)
+                    Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null))
+        .map(VirtualThreadPool::new)
+        .onFailure(
+            err ->
+                Log.e(
+                    TAG,
+                    "virtual threads need JDK 21 or later, running on "
+                        + System.getProperty("java.version")))
+        .toOption();
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(
+        () -> {
+          activeThreads.incrementAndGet();
+          try {
+            task.run();
+          } finally {
+            activeThreads.decrementAndGet();
+          }
+        });
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    executor.shutdown();
+    if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void join() throws InterruptedException {
+    while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+      // keep waiting
+    }
+  }
+
+  @Override
+  public int getThreads() {
+    return activeThreads.get();
+  }
+
+  /** Virtual threads are made on demand, so there are never any sitting around idle. */
+  @Override
+  public int getIdleThreads() {
+    return 0;
+  }
+
+  /** We can always make another virtual thread, so we're never low on them. */
+  @Override
+  public boolean isLowOnThreads() {
+    return false;
+  }
+}
@@ -50,13 +50,14 @@ function dispatchQuery(input) {
             'key': key,
             'input': input
         },
+        dataType: "json",
         success: data => {
-            console.log("success: " + data);
-            printParagraph(JSON.parse(data).response)
+            console.log("success: " + data.response);
+            printParagraph(data.response)
         },
-        error: data => {
-            console.log("error: " + data);
-            printParagraph(JSON.parse(data).response)
+        error: xhr => {
+            console.log("error: " + xhr.statusText);
+            printParagraph(xhr.responseJSON ? xhr.responseJSON.response : xhr.statusText)
         }
     })
 }
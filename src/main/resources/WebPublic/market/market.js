@@ -1,5 +1,11 @@
 "use strict";
 
+// If the page was opened as /market/?account=someone, every request is about that account.
+var account = new URLSearchParams(window.location.search).get("account");
+if (account) {
+    $.ajaxSetup({data: {"account": account}});
+}
+
 // this doesn't happen until the DOM is instantiated
 $(document).ready(function() {
     update();